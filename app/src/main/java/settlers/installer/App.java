@@ -24,6 +24,7 @@ import javax.swing.JButton;
 import javax.swing.JEditorPane;
 import javax.swing.JOptionPane;
 import javax.swing.JWindow;
+import javax.swing.SwingUtilities;
 import javax.swing.event.HyperlinkEvent;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
@@ -67,6 +68,8 @@ public class App extends javax.swing.JFrame {
     
     private Configuration configuration;
     private GitHub github;
+    /** Answers from the catalog on disk, to show the game list right away. */
+    private GitHub cachedGithub;
     private GameList gameList;
     private JWindow bugButton;
     
@@ -78,8 +81,41 @@ public class App extends javax.swing.JFrame {
     public App() {
         initComponents();
         jProgressBar.setVisible(false);
+        TransferMetrics.addListener(new TransferListener() {
+            @Override
+            public void transferUpdated(TransferMetrics metrics) {
+                if (metrics.isBackground()) {
+                    return;
+                }
+                long total = metrics.getTotal();
+                long done = metrics.getDone();
+                String text = metrics.toString();
+                SwingUtilities.invokeLater(() -> {
+                    if (total > 0) {
+                        jProgressBar.setIndeterminate(false);
+                        jProgressBar.setMaximum(1000);
+                        jProgressBar.setValue((int) (done * 1000 / total));
+                    }
+                    jProgressBar.setStringPainted(true);
+                    jProgressBar.setString(text);
+                });
+            }
+
+            @Override
+            public void transferFinished(TransferMetrics metrics) {
+                if (metrics.isBackground()) {
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    jProgressBar.setIndeterminate(true);
+                    jProgressBar.setStringPainted(false);
+                });
+            }
+        });
         
         configuration = Configuration.load(Util.getConfigurationFile());
+        TransferScheduler.getDefault().setRate(configuration.getDownloadRateLimit());
+        Util.setVerifyChecksums(configuration.isVerifyChecksums());
         try {
             GitHubBuilder githubBuilder = new GitHubBuilder();
             githubBuilder.withAbuseLimitHandler(new GitHubAbuseLimitHandler() {
@@ -93,26 +129,24 @@ public class App extends javax.swing.JFrame {
                 @Override
                 public void onError(GitHubConnectorResponse ghcr) throws IOException {
                     log.error("GitHubRateLimitHandler onError(...)");
-                    JOptionPane.showMessageDialog(null, "Rate limit applies...");
+                    // the caller reports this, github-api would otherwise wait for the reset
+                    throw new IOException("GitHub rate limit exceeded until " + RateLimitBudget.getDefault().getResetDate());
                 }
             });
             githubBuilder.withRateLimitChecker(new RateLimitChecker() {
                 @Override
                 protected boolean checkRateLimit(GHRateLimit.Record rateLimitRecord, long count) throws InterruptedException {
                     log.debug("checkRateLimit({}, {})", rateLimitRecord, count);
+                    RateLimitBudget budget = RateLimitBudget.getDefault();
+                    budget.update(rateLimitRecord);
                     
-                    // if we are too low, bail out
-                    if (rateLimitRecord.getRemaining()<10) {
-                        log.warn("Too low rate limit. Bailing out");
-                        return true;
-                    }
-                    
-                    // if we are getting low, delay the requests a bit
-                    if (rateLimitRecord.getRemaining()<100) {
-                        log.warn("Low rate limit. Throttling speed");
-                        Thread.sleep(1000- 10*rateLimitRecord.getRemaining());
+                    // if we are too low, do not block this thread until the reset; callers check the budget,
+                    // and once GitHub refuses requests the rate limit handler reports it
+                    if (budget.isExhausted(10)) {
+                        log.warn("Too low rate limit, reset at {}", budget.getResetDate());
                     }
                     
+                    // requests the user waits for are not delayed, the catalog crawler paces itself
                     return false;
                 }                
             });
@@ -123,11 +157,18 @@ public class App extends javax.swing.JFrame {
             } else {
                 log.debug("GitHub anonymously");
             }
+            GitHubCatalog.setToken(configuration.getGithubUsername() != null ? configuration.getGithubToken() : null);
+            Util.setGraphQLCatalog(configuration.getGithubUsername() != null && configuration.getGithubToken() != null
+                    ? new GraphQLCatalog(configuration.getGithubToken())
+                    : null);
+            githubBuilder.withConnector(GitHubCatalog.getConnector());
             github = githubBuilder.build();
+            cachedGithub = githubBuilder.withConnector(GitHubCatalog.getCachedConnector()).build();
             
             log.info("GitHub Credentials valid: {}", github.isCredentialValid());
             
             GHRateLimit ghrl = github.getRateLimit();
+            RateLimitBudget.getDefault().update(ghrl.getCore());
             log.info("GitHub Rate Limit Core:                 {}", ghrl.getCore());
             log.info("GitHub Rate Limit GraphQL:              {}", ghrl.getGraphQL());
             log.info("GitHub Rate Limit Integration Manifest: {}", ghrl.getIntegrationManifest());
@@ -161,6 +202,7 @@ public class App extends javax.swing.JFrame {
         gameList = new GameList();
         add(gameList, new GridBagConstraints(3, 1, 1, 1, 1.0, 1.0, GridBagConstraints.CENTER, GridBagConstraints.BOTH, new Insets(0, 0, 0, 0), 0, 0));
         checkFiles();
+        MusicSync.startIfIncomplete();
         pack();
     }
 
@@ -428,7 +470,7 @@ public class App extends javax.swing.JFrame {
         
         // check if we are logged in
         try {
-            github.getRateLimit().getRemaining();
+            RateLimitBudget.getDefault().getRemaining(github);
         } catch (Exception e) {
             log.warn("seems we are not logged in. Do not show the bug button as we cannot raise issues anyway.", e);
             return;
@@ -591,17 +633,13 @@ public class App extends javax.swing.JFrame {
             public void run() {
                 int x = 0;
                 try {
-                    try {
-                        Util.downloadMusic();
-                    } catch (Exception e) {
-                        log.warn("Problem downloading music", e);
-                    }
+                    // music is fetched in the background, the game does not wait for it
+                    MusicSync.startIfIncomplete();
 
-                    
                     Object game = gameList.getSelection();
                     if (game instanceof GHObject) {
                         if (!Util.isInstalled((GHObject)game)) {
-                            if (github.getRateLimit().getRemaining()>1) {
+                            if (RateLimitBudget.getDefault().getRemaining(github)>1) {
                             Util.installGame((GHObject)game);
                             } else {
                                 throw new Exception("Cannot install. GitHub Rate limit exceeded");
@@ -651,6 +689,8 @@ public class App extends javax.swing.JFrame {
         if (JOptionPane.showOptionDialog(this, cp, "Preferences", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE, null, null, null)==JOptionPane.OK_OPTION) {
             configuration = cp.getData();
             configuration.save(Util.getConfigurationFile());
+            TransferScheduler.getDefault().setRate(configuration.getDownloadRateLimit());
+            Util.setVerifyChecksums(configuration.isVerifyChecksums());
         }
     }//GEN-LAST:event_btOptionsActionPerformed
 
@@ -676,7 +716,7 @@ public class App extends javax.swing.JFrame {
                     Object game = gameList.getSelection();
                     if (game instanceof GHObject) {
                         if (!Util.isInstalled((GHObject)game)) {
-                            if (github.getRateLimit().getRemaining()>1) {
+                            if (RateLimitBudget.getDefault().getRemaining(github)>1) {
                                 Util.installGame((GHObject)game);
                             } else {
                                 throw new Exception("Cannot install. GitHub Rate limit exceeded");
@@ -740,7 +780,7 @@ public class App extends javax.swing.JFrame {
                     Object game = gameList.getSelection();
                     if (game instanceof GHObject) {
                         if (!Util.isInstalled((GHObject)game)) {
-                            if (github.getRateLimit().getRemaining()>1) {
+                            if (RateLimitBudget.getDefault().getRemaining(github)>1) {
                                 Util.installGame((GHObject)game);
                             } else {
                                 throw new Exception("Cannot install. GitHub Rate limit exceeded");
@@ -820,8 +860,8 @@ public class App extends javax.swing.JFrame {
 
                     if (gameList.getData().isEmpty()) {
                         try {
-                            GHRateLimit.Record limit = github.getRateLimit().getCore();
-                            String msg = String.format("We have no games to show, and the GitHub Rate Limit is %d/%d until %s", limit.getRemaining(), limit.getLimit(), limit.getResetDate());
+                            RateLimitBudget limit = RateLimitBudget.getDefault();
+                            String msg = String.format("We have no games to show, and the GitHub Rate Limit is %d/%d until %s", limit.getRemaining(github), limit.getLimit(), limit.getResetDate());
                             log.debug(msg);
                             JOptionPane.showMessageDialog(App.this, msg);
                         } catch (Exception e) {
@@ -902,6 +942,17 @@ public class App extends javax.swing.JFrame {
             log.debug("github anonymous: {}", github.isAnonymous());
             log.debug("github offline:   {}", github.isOffline());
 
+            // show what we saw last time while GitHub is asked for changes
+            try {
+                List<Object> cachedGames = new ArrayList<>(Util.getCachedGames(cachedGithub, !configuration.isCheckArtifacts()));
+                if (!cachedGames.isEmpty()) {
+                    gameList.setData(cachedGames);
+                    getGlassPane().setVisible(false);
+                }
+            } catch (IOException e) {
+                log.debug("No game list stored yet", e);
+            }
+
             GHRepository repository = null;
             try {
                 availableGames.addAll(Util.getAvailableGames(github, !configuration.isCheckArtifacts()));
@@ -0,0 +1,240 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Content-addressed cache for downloaded release assets and build artifacts.
+ * Each file is stored as <code>&lt;kind&gt;-&lt;id&gt;-&lt;sha256&gt;.zip</code>,
+ * where id is the GitHub id of the GHAsset or GHArtifact. Asset and artifact
+ * ids are counted separately, so the kind keeps them apart. Reinstalling a
+ * version thus does not need to contact GitHub again.
+ * When a file is added, it's digest is compared with the one GitHub reports
+ * for the asset or artifact, if GitHub reports one. Hits are not hashed
+ * again; extracting checks the CRC-32 of every entry anyway.
+ * The cache is bounded in size. When it grows too large, the least recently
+ * used files are removed first. Usage is tracked via the file's modification
+ * time. Files used within {@link #IN_USE_MILLIS} are kept, since an install
+ * or repair may still be reading them. All instances share one lock, as they
+ * share the folder.
+ *
+ * @author hiran
+ */
+public class ArtifactCache {
+    private static final Logger log = LogManager.getLogger(ArtifactCache.class);
+
+    /** Default upper limit for the cache size in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+    /** Files returned or added this recently are not evicted. */
+    public static final long IN_USE_MILLIS = 10L * 60 * 1000;
+
+    /**
+     * What a cached file was downloaded as.
+     */
+    public enum Kind {
+        /** A release asset. */
+        ASSET("asset"),
+        /** A workflow run artifact. */
+        ARTIFACT("artifact");
+
+        private final String prefix;
+
+        Kind(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private static final Object lock = new Object();
+
+    private final File folder;
+    private final long maxSize;
+
+    /**
+     * Creates a cache in the managed cache folder with the default size limit.
+     */
+    public ArtifactCache() {
+        this(Util.getManagedCacheFolder(), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache in the given folder.
+     *
+     * @param folder the folder to store files
+     * @param maxSize the upper limit for the cache size in bytes
+     */
+    public ArtifactCache(File folder, long maxSize) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached file for the given GitHub id.
+     *
+     * @param kind what the id belongs to
+     * @param id the id of the GHAsset or GHArtifact
+     * @return the cached file, or null if nothing is cached
+     */
+    public File get(Kind kind, long id) {
+        synchronized (lock) {
+            File[] candidates = list(kind, id);
+            if (candidates == null || candidates.length == 0) {
+                return null;
+            }
+            File candidate = candidates[0];
+            log.debug("cache hit for {} {}: {}", kind, id, candidate);
+            candidate.setLastModified(System.currentTimeMillis());
+            return candidate;
+        }
+    }
+
+    /**
+     * Checks a cached file against the digest in it's name. Corrupt files
+     * are removed.
+     *
+     * @param file a file returned by this cache
+     * @return true if the content matches
+     */
+    public boolean verify(File file) {
+        String name = file.getName();
+        String expected = name.substring(name.lastIndexOf('-') + 1, name.length() - ".zip".length());
+        try {
+            if (expected.equals(sha256(file))) {
+                return true;
+            }
+            log.warn("Cached file {} does not match its digest. Removing it.", file);
+        } catch (IOException e) {
+            log.warn("Could not verify cached file {}", file, e);
+        }
+        synchronized (lock) {
+            file.delete();
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a file of the given size would be kept in the cache.
+     *
+     * @param size the size in bytes, or -1 if unknown
+     * @return true if the file fits into the cache
+     */
+    public boolean fits(long size) {
+        return maxSize > 0 && size <= maxSize;
+    }
+
+    /**
+     * Moves the given file into the cache.
+     *
+     * @param kind what the id belongs to
+     * @param id the id of the GHAsset or GHArtifact
+     * @param file the downloaded file. It is moved and no longer available afterwards
+     * @param expectedSha256 the digest GitHub reports in hex, or null if it reports none
+     * @return the file inside the cache
+     * @throws IOException something went wrong, or the file does not match the expected digest
+     */
+    public File put(Kind kind, long id, File file, String expectedSha256) throws IOException {
+        // hashing is the slow part, so it happens outside the lock
+        String digest = sha256(file);
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(digest)) {
+            file.delete();
+            throw new IOException(String.format("Download of %s %d has SHA-256 %s, GitHub reports %s", kind, id, digest, expectedSha256));
+        }
+
+        synchronized (lock) {
+            folder.mkdirs();
+            File cached = new File(folder, kind.prefix + "-" + id + "-" + digest + ".zip");
+            Files.move(file.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            cached.setLastModified(System.currentTimeMillis());
+            log.debug("cached {} {} as {}", kind, id, cached);
+
+            // drop other content stored under the same id
+            File[] stale = list(kind, id);
+            if (stale != null) {
+                for (File f : stale) {
+                    if (!f.equals(cached)) {
+                        f.delete();
+                    }
+                }
+            }
+
+            evict();
+            return cached;
+        }
+    }
+
+    /**
+     * Removes the cached file for the given id.
+     *
+     * @param kind what the id belongs to
+     * @param id the id of the GHAsset or GHArtifact
+     */
+    public void remove(Kind kind, long id) {
+        synchronized (lock) {
+            File[] files = list(kind, id);
+            if (files != null) {
+                for (File f : files) {
+                    log.debug("removing {} from cache", f);
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes least recently used files until the cache fits it's size limit.
+     * Files in use are kept, even if the cache stays too large.
+     */
+    public void evict() {
+        synchronized (lock) {
+            File[] files = folder.listFiles(File::isFile);
+            if (files == null) {
+                return;
+            }
+            long total = 0;
+            for (File f : files) {
+                total += f.length();
+            }
+            if (total <= maxSize) {
+                return;
+            }
+
+            List<File> byAge = new ArrayList<>(Arrays.asList(files));
+            byAge.sort(Comparator.comparingLong(File::lastModified));
+            long inUse = System.currentTimeMillis() - IN_USE_MILLIS;
+            for (File f : byAge) {
+                if (total <= maxSize || f.lastModified() > inUse) {
+                    // the rest is newer still
+                    break;
+                }
+                long length = f.length();
+                log.info("evicting {} from cache", f);
+                if (f.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    private File[] list(Kind kind, long id) {
+        String prefix = kind.prefix + "-" + id + "-";
+        return folder.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".zip"));
+    }
+
+    private static String sha256(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return DigestUtils.sha256Hex(in);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.model.InstallManifest;
+import settlers.installer.model.InstalledFile;
+
+/**
+ * Keeps the files of all installed game versions once, by SHA-256.
+ * Each installation folder is a tree of hard links into the blob folder,
+ * described by it's {@link InstallManifest}. Blobs no manifest refers to
+ * are removed by {@link #collectGarbage()}.
+ * If the file system does not support hard links, installations simply keep
+ * their own copies.
+ *
+ * @author hiran
+ */
+public class BlobStore {
+    private static final Logger log = LogManager.getLogger(BlobStore.class);
+
+    private final File folder;
+    private final File gamesFolder;
+
+    /**
+     * Creates a store in the managed blob folder for the managed games folder.
+     */
+    public BlobStore() {
+        this(Util.getBlobFolder(), Util.getGamesFolder());
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param folder the folder for blobs
+     * @param gamesFolder the folder containing the installations
+     */
+    public BlobStore(File folder, File gamesFolder) {
+        this.folder = folder;
+        this.gamesFolder = gamesFolder;
+    }
+
+    /**
+     * Returns the blob for the given digest.
+     *
+     * @param sha256 the digest in hex
+     * @return the blob, which may not exist
+     */
+    public Path getBlob(String sha256) {
+        return folder.toPath().resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    /**
+     * Moves the files of an installation into the store and replaces them by
+     * links. Digests already in the manifest, e.g. computed during
+     * extraction, are trusted. Files that were linked from another
+     * installation keep the digest recorded there, all others are hashed.
+     * The digests are written into the manifest.
+     *
+     * @param installFolder the installation
+     * @param manifest the installation's manifest, updated with digests
+     * @param reuse the index the installation was linked from, or null
+     */
+    public void add(File installFolder, InstallManifest manifest, InstalledFileIndex reuse) {
+        int shared = 0;
+        for (InstalledFile f : manifest.getFiles()) {
+            Path file = installFolder.toPath().resolve(f.getName());
+            try {
+                String sha256 = f.getSha256();
+                if (sha256 == null && reuse != null) {
+                    sha256 = reuse.findSha256(f.getSize(), f.getCrc());
+                    if (sha256 != null && !Files.isSameFile(file, getBlob(sha256))) {
+                        sha256 = null;
+                    }
+                }
+                if (sha256 == null) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        sha256 = DigestUtils.sha256Hex(in);
+                    }
+                }
+                f.setSha256(sha256);
+
+                Path blob = getBlob(sha256);
+                if (Files.exists(blob)) {
+                    if (!Files.isSameFile(file, blob)) {
+                        Files.delete(file);
+                        Files.createLink(file, blob);
+                    }
+                    shared++;
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    Files.createLink(blob, file);
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Cannot store {} as blob, keeping the copy", file, e);
+            }
+        }
+        log.info("{} of {} files shared with other installations", shared, manifest.getFiles().size());
+    }
+
+    /**
+     * Removes blobs that no installation refers to any more.
+     */
+    public void collectGarbage() {
+        Set<String> referenced = new HashSet<>();
+        File[] installs = gamesFolder.listFiles(File::isDirectory);
+        if (installs != null) {
+            for (File install : installs) {
+                InstallManifest manifest = InstallManifest.load(install);
+                if (manifest == null) {
+                    continue;
+                }
+                for (InstalledFile f : manifest.getFiles()) {
+                    if (f.getSha256() != null) {
+                        referenced.add(f.getSha256());
+                    }
+                }
+            }
+        }
+
+        File[] prefixes = folder.listFiles(File::isDirectory);
+        if (prefixes == null) {
+            return;
+        }
+        int removed = 0;
+        for (File prefix : prefixes) {
+            File[] blobs = prefix.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            for (File blob : blobs) {
+                if (!referenced.contains(blob.getName()) && blob.delete()) {
+                    removed++;
+                }
+            }
+            prefix.delete();
+        }
+        log.info("removed {} unreferenced blobs", removed);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.github.GHWorkflow;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.PagedIterator;
+
+/**
+ * Finds the workflow runs that still have artifacts to install.
+ * Checking a run takes one request, so runs are checked several at a time.
+ * Runs are taken workflow by workflow, newest first, and the result keeps
+ * that order. The crawl stops once enough runs are found or the
+ * {@link RateLimitBudget} would fall below a reserve. As the crawl runs in
+ * the background, it's requests are paced when the budget gets low.
+ * A workflow is only crawled down to the newest run seen before, see
+ * {@link CatalogSync}. Runs
+ * that are queued or still running may upload artifacts later, so the mark
+ * stays below the oldest of them and they are looked at again next time.
+ *
+ * @author hiran
+ */
+public class CatalogCrawler {
+    private static final Logger log = LogManager.getLogger(CatalogCrawler.class);
+
+    /** Number of runs checked at the same time. */
+    public static final int PROBE_THREADS = 8;
+
+    private static final int PAGE_SIZE = 30;
+
+    private final RateLimitBudget budget;
+    private final int reserve;
+
+    /**
+     * Creates a crawler.
+     *
+     * @param budget the budget to take requests from, or null for no limit
+     * @param reserve the number of requests to leave in the budget
+     */
+    public CatalogCrawler(RateLimitBudget budget, int reserve) {
+        this.budget = budget;
+        this.reserve = reserve;
+    }
+
+    /**
+     * Collects the newest runs with artifacts.
+     *
+     * @param workflows the workflows to look at, in order
+     * @param limit the number of runs to find
+     * @param marks the newest run seen per workflow, updated for the workflows crawled, below any run not completed
+     * @return the runs newer than the marks, at most limit
+     * @throws IOException something went wrong
+     */
+    public List<GHWorkflowRun> findRunsWithArtifacts(List<GHWorkflow> workflows, int limit, Map<Long, Long> marks) throws IOException {
+        log.debug("findRunsWithArtifacts({} workflows, {})", workflows.size(), limit);
+        List<GHWorkflowRun> result = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(PROBE_THREADS, r -> {
+            Thread t = new Thread(r, "catalog probe");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (GHWorkflow workflow : workflows) {
+                if (result.size() >= limit || !acquire()) {
+                    break;
+                }
+                long known = marks.getOrDefault(workflow.getId(), 0L);
+                long newest = known;
+                long oldestIncomplete = Long.MAX_VALUE;
+                boolean complete = false;
+                PagedIterator<GHWorkflowRun> runs = workflow.listRuns().withPageSize(PAGE_SIZE).iterator();
+                while (result.size() < limit && !complete) {
+                    // as many probes as runs are missing, so none is wasted if all have artifacts
+                    List<GHWorkflowRun> batch = new ArrayList<>();
+                    while (batch.size() < limit - result.size()) {
+                        if (!runs.hasNext()) {
+                            complete = true;
+                            break;
+                        }
+                        GHWorkflowRun run = runs.next();
+                        if (run.getId() <= known) {
+                            complete = true;
+                            break;
+                        }
+                        if (!acquire()) {
+                            break;
+                        }
+                        newest = Math.max(newest, run.getId());
+                        if (run.getStatus() != GHWorkflowRun.Status.COMPLETED) {
+                            oldestIncomplete = run.getId();
+                        }
+                        batch.add(run);
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    List<Future<Boolean>> probes = new ArrayList<>();
+                    for (GHWorkflowRun run : batch) {
+                        probes.add(executor.submit(() -> hasArtifacts(run)));
+                    }
+                    for (int i = 0; i < batch.size() && result.size() < limit; i++) {
+                        if (probes.get(i).get()) {
+                            result.add(batch.get(i));
+                        }
+                    }
+                }
+                // runs skipped for lack of budget must be crawled next time
+                if (complete || result.size() >= limit) {
+                    marks.put(workflow.getId(), Math.min(newest, oldestIncomplete - 1));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing workflow runs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not list workflow runs", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.debug("found {} runs with artifacts", result.size());
+        return result;
+    }
+
+    private static boolean hasArtifacts(GHWorkflowRun run) {
+        // one artifact is enough to know
+        return run.listArtifacts().withPageSize(1).iterator().hasNext();
+    }
+
+    private boolean acquire() throws InterruptedException {
+        if (budget == null) {
+            return true;
+        }
+        budget.pace();
+        return budget.tryAcquire(reserve);
+    }
+}
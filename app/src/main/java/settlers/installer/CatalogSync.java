@@ -0,0 +1,161 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.github.GHObject;
+import org.kohsuke.github.GHRelease;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.PagedIterator;
+
+/**
+ * Remembers the catalog of available games between refreshes, so a refresh
+ * only fetches what is newer.
+ * Releases are paged until the first known one. For workflow runs the
+ * newest run seen per workflow is kept as a high-water mark, and the crawl
+ * of a workflow stops there, see {@link CatalogCrawler}. The
+ * {@link GraphQLCatalog} sees other runs than the crawler, so each
+ * {@link Source} keeps its own marks. New items are merged with the known
+ * ones.
+ * Artifacts expire and releases may be deleted, which an incremental
+ * refresh cannot notice. Once a day the catalog is therefore fetched in
+ * full.
+ *
+ * @author hiran
+ */
+public class CatalogSync {
+    private static final Logger log = LogManager.getLogger(CatalogSync.class);
+
+    /** Time after which the whole catalog is fetched again. */
+    public static final Duration FULL_SYNC_INTERVAL = Duration.ofDays(1);
+
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * The ways workflow runs are found.
+     */
+    public enum Source {
+        /** The {@link CatalogCrawler}. */
+        REST,
+        /** The {@link GraphQLCatalog}. */
+        GRAPHQL
+    }
+
+    private final Map<Long, GHRelease> releases = new HashMap<>();
+    private final Map<Long, GHWorkflowRun> runs = new HashMap<>();
+    private final Map<Source, Map<Long, Long>> newestRuns = new EnumMap<>(Source.class);
+    private Instant lastFullSync;
+
+    /**
+     * Forgets the catalog if it is too old, so the next refresh is a full one.
+     */
+    public synchronized void expire() {
+        if (lastFullSync != null && Instant.now().isAfter(lastFullSync.plus(FULL_SYNC_INTERVAL))) {
+            log.debug("catalog is older than {}, fetching it in full", FULL_SYNC_INTERVAL);
+            clear();
+        }
+    }
+
+    /**
+     * Forgets the catalog.
+     */
+    public synchronized void clear() {
+        releases.clear();
+        runs.clear();
+        newestRuns.clear();
+        lastFullSync = null;
+    }
+
+    /**
+     * Lists the releases published since the last refresh.
+     *
+     * @param repository the repository to look at
+     * @return the new releases, newest first
+     * @throws IOException something went wrong
+     */
+    public List<GHRelease> listNewReleases(GHRepository repository) throws IOException {
+        Set<Long> known;
+        synchronized (this) {
+            known = new HashSet<>(releases.keySet());
+        }
+        List<GHRelease> result = new ArrayList<>();
+        // a full listing uses the default page size, small pages suit the usual one or two new releases
+        PagedIterator<GHRelease> it = known.isEmpty()
+                ? repository.listReleases().iterator()
+                : repository.listReleases().withPageSize(PAGE_SIZE).iterator();
+        while (it.hasNext()) {
+            GHRelease release = it.next();
+            if (known.contains(release.getId())) {
+                break;
+            }
+            result.add(release);
+        }
+        log.debug("{} new releases, {} known", result.size(), known.size());
+        return result;
+    }
+
+    /**
+     * Returns the newest run seen per workflow.
+     *
+     * @param source the way the runs were found
+     * @return workflow id to run id
+     */
+    public synchronized Map<Long, Long> getNewestRuns(Source source) {
+        return new HashMap<>(newestRuns.getOrDefault(source, Map.of()));
+    }
+
+    /**
+     * Merges new items into the catalog.
+     *
+     * @param newReleases the releases found
+     * @param newRuns the workflow runs with artifacts found, or null if runs were not looked at
+     * @param source the way the runs were found
+     * @param marks the newest run seen per workflow
+     * @param runLimit the number of workflow runs to keep, the newest win
+     * @return the whole catalog
+     */
+    public synchronized List<GHObject> merge(List<GHRelease> newReleases, List<GHWorkflowRun> newRuns, Source source, Map<Long, Long> marks, int runLimit) {
+        if (lastFullSync == null) {
+            lastFullSync = Instant.now();
+        }
+        for (GHRelease release : newReleases) {
+            releases.put(release.getId(), release);
+        }
+        if (newRuns == null) {
+            // runs were not looked at, so the known ones are no longer current
+            runs.clear();
+            newestRuns.clear();
+        } else {
+            for (GHWorkflowRun run : newRuns) {
+                runs.put(run.getId(), run);
+            }
+            Map<Long, Long> known = newestRuns.computeIfAbsent(source, s -> new HashMap<>());
+            for (Map.Entry<Long, Long> mark : marks.entrySet()) {
+                known.merge(mark.getKey(), mark.getValue(), Math::max);
+            }
+            // run ids grow over time, so the highest ids are the newest runs
+            List<Long> ids = new ArrayList<>(runs.keySet());
+            ids.sort((a, b) -> Long.compare(b, a));
+            for (Long id : ids.subList(Math.min(runLimit, ids.size()), ids.size())) {
+                runs.remove(id);
+            }
+        }
+
+        List<GHObject> result = new ArrayList<>(releases.values());
+        result.addAll(runs.values());
+        log.debug("catalog has {} releases and {} runs", releases.size(), runs.size());
+        return result;
+    }
+}
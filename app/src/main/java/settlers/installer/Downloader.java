@@ -0,0 +1,771 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads files via HTTP and resumes interrupted transfers.
+ * While downloading, the data is kept in a .part file inside the managed temp
+ * folder. Next to it a properties file records ETag, Last-Modified and the
+ * offset reached so far. After a broken connection - or after a restart of
+ * the installer - the download continues with a HTTP Range request, as long
+ * as the server confirms the resource did not change.
+ *
+ * @author hiran
+ */
+public class Downloader {
+    private static final Logger log = LogManager.getLogger(Downloader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CHECKPOINT_INTERVAL = 4L * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private final File partFolder;
+    private int maxAttempts = 5;
+    private TransferScheduler.Priority priority = TransferScheduler.Priority.DATA;
+
+    /**
+     * Creates a Downloader keeping partial downloads in the managed temp folder.
+     */
+    public Downloader() {
+        this(Util.getManagedTempFolder());
+    }
+
+    /**
+     * Creates a Downloader keeping partial downloads in the given folder.
+     *
+     * @param partFolder the folder for .part files
+     */
+    public Downloader(File partFolder) {
+        this.partFolder = partFolder;
+    }
+
+    /**
+     * Returns how often a download is attempted before giving up.
+     *
+     * @return the number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets how often a download is attempted before giving up.
+     *
+     * @param maxAttempts the number of attempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the priority of this Downloader's transfers.
+     *
+     * @return the priority
+     */
+    public TransferScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of this Downloader's transfers.
+     *
+     * @param priority the priority
+     */
+    public void setPriority(TransferScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the file holding the partial download for the given url.
+     * The name is derived from the url so a restarted installer finds it again.
+     *
+     * @param url the url to download
+     * @return the .part file
+     */
+    public File getPartFile(URL url) {
+        return new File(partFolder, DigestUtils.sha1Hex(url.toString()) + ".part");
+    }
+
+    /**
+     * Returns the file holding ETag, Last-Modified and offset for the given url.
+     *
+     * @param url the url to download
+     * @return the properties file
+     */
+    public File getPartInfoFile(URL url) {
+        return new File(partFolder, DigestUtils.sha1Hex(url.toString()) + ".part.properties");
+    }
+
+    /**
+     * Downloads the url into the target file. Interrupted transfers are
+     * resumed where they stopped.
+     *
+     * @param url the url to download from
+     * @param target the file to store the data
+     * @throws IOException the download did not succeed within the allowed attempts
+     */
+    public void download(URL url, File target) throws IOException {
+        log.debug("download({}, {})", url, target);
+        partFolder.mkdirs();
+        File part = getPartFile(url);
+        File info = getPartInfoFile(url);
+
+        TransferMetrics metrics = newMetrics(url);
+        IOException lastException = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                metrics.retry();
+            }
+            try {
+                fetch(url, part, info, metrics);
+
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                info.delete();
+                log.debug("stored in {}", target);
+                metrics.finish();
+                return;
+            } catch (IOException e) {
+                lastException = e;
+                log.info("Download attempt {}/{} for {} failed at {} bytes", attempt, maxAttempts, url, part.length(), e);
+                if (attempt < maxAttempts && !backoff(attempt)) {
+                    break;
+                }
+            }
+        }
+        metrics.finish();
+        throw new IOException(String.format("Could not download %s to %s", url, target), lastException);
+    }
+
+    /**
+     * Opens the url for streaming. With tee enabled every byte read is also
+     * written into the .part file and recorded in the state file, so that a
+     * following {@link #download(URL, File)} resumes where the stream broke.
+     *
+     * @param url the url to read
+     * @param tee true to keep a copy of the data in the .part file
+     * @return the stream to read from
+     * @throws IOException something went wrong
+     */
+    public InputStream openStream(URL url, boolean tee) throws IOException {
+        log.debug("openStream({}, {})", url, tee);
+        TransferMetrics metrics = newMetrics(url);
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            return finishOnClose(track(connection.getInputStream(), metrics), metrics);
+        }
+
+        HttpURLConnection con = (HttpURLConnection) connection;
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        con.setInstanceFollowRedirects(true);
+        int rc = con.getResponseCode();
+        if (rc != HttpURLConnection.HTTP_OK) {
+            con.disconnect();
+            throw new IOException(String.format("Unexpected response %d for %s", rc, url));
+        }
+        metrics.setTotal(con.getContentLengthLong());
+        if (!tee) {
+            return finishOnClose(track(con.getInputStream(), metrics), metrics);
+        }
+
+        partFolder.mkdirs();
+        File part = getPartFile(url);
+        File info = getPartInfoFile(url);
+        Properties state = new Properties();
+        state.setProperty("url", url.toString());
+        state.setProperty("total", String.valueOf(con.getContentLengthLong()));
+        setOrRemove(state, "etag", con.getHeaderField("ETag"));
+        setOrRemove(state, "last-modified", con.getHeaderField("Last-Modified"));
+        state.setProperty("offset", "0");
+        saveState(state, info);
+
+        OutputStream out = new FileOutputStream(part);
+        return new FilterInputStream(track(con.getInputStream(), metrics)) {
+            private long done;
+            private long checkpoint = CHECKPOINT_INTERVAL;
+
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c >= 0) {
+                    out.write(c);
+                    advance(1);
+                }
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    out.write(b, off, n);
+                    advance(n);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // skipped bytes still need to reach the .part file
+                byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+                int read = read(buffer, 0, buffer.length);
+                return Math.max(read, 0);
+            }
+
+            private void advance(int n) throws IOException {
+                done += n;
+                if (done >= checkpoint) {
+                    out.flush();
+                    state.setProperty("offset", String.valueOf(done));
+                    saveState(state, info);
+                    checkpoint = done + CHECKPOINT_INTERVAL;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    out.close();
+                    state.setProperty("offset", String.valueOf(part.length()));
+                    saveState(state, info);
+                    metrics.finish();
+                }
+            }
+        };
+    }
+
+    /**
+     * Moves a completely streamed .part file to the target.
+     *
+     * @param url the url that was streamed
+     * @param target the file to store the data
+     * @throws IOException something went wrong
+     */
+    public void commit(URL url, File target) throws IOException {
+        Files.move(getPartFile(url).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        getPartInfoFile(url).delete();
+    }
+
+    /**
+     * Removes the .part file and its state for the given url.
+     *
+     * @param url the url
+     */
+    public void discard(URL url) {
+        getPartFile(url).delete();
+        getPartInfoFile(url).delete();
+    }
+
+    /**
+     * Loads the recorded state of a partial download. If the state belongs to
+     * a different url or the .part file vanished, both are discarded.
+     */
+    private Properties loadState(URL url, File part, File info) {
+        Properties state = new Properties();
+        if (info.isFile() && part.isFile()) {
+            try (InputStream in = new FileInputStream(info)) {
+                state.load(in);
+            } catch (IOException e) {
+                log.warn("Could not read download state {}", info, e);
+                state.clear();
+            }
+        }
+        if (!url.toString().equals(state.getProperty("url"))) {
+            state.clear();
+            part.delete();
+        }
+        state.setProperty("url", url.toString());
+        return state;
+    }
+
+    private void saveState(Properties state, File info) {
+        try (OutputStream out = new FileOutputStream(info)) {
+            state.store(out, new Date().toString());
+        } catch (IOException e) {
+            log.warn("Could not save download state {}", info, e);
+        }
+    }
+
+    private void fetch(URL url, File part, File info, TransferMetrics metrics) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            // no range support for file: or jar: urls, just copy
+            try (InputStream in = track(connection.getInputStream(), metrics)) {
+                Files.copy(in, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+
+        Properties state = loadState(url, part, info);
+        long offset = part.isFile() ? part.length() : 0;
+        String etag = state.getProperty("etag");
+        String lastModified = state.getProperty("last-modified");
+
+        HttpURLConnection con = (HttpURLConnection) connection;
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        con.setInstanceFollowRedirects(true);
+        if (offset > 0 && (etag != null || lastModified != null)) {
+            log.debug("resuming {} at {} bytes", url, offset);
+            con.setRequestProperty("Range", "bytes=" + offset + "-");
+            // If-Range makes the server send the full file if it changed meanwhile
+            con.setRequestProperty("If-Range", etag != null ? etag : lastModified);
+        } else {
+            offset = 0;
+        }
+
+        int rc = con.getResponseCode();
+        boolean append;
+        long total;
+        if (rc == HttpURLConnection.HTTP_PARTIAL) {
+            long start = parseContentRangeStart(con.getHeaderField("Content-Range"));
+            if (start != offset) {
+                con.disconnect();
+                part.delete();
+                throw new IOException(String.format("Server resumed at %d instead of %d", start, offset));
+            }
+            append = true;
+            total = parseContentRangeTotal(con.getHeaderField("Content-Range"));
+        } else if (rc == HttpURLConnection.HTTP_OK) {
+            append = false;
+            offset = 0;
+            total = con.getContentLengthLong();
+        } else if (rc == 416) {
+            // requested range not satisfiable: either we are complete or the file shrunk
+            long size = parseContentRangeTotal(con.getHeaderField("Content-Range"));
+            con.disconnect();
+            if (size == offset) {
+                log.debug("{} already complete", url);
+                return;
+            }
+            part.delete();
+            throw new IOException(String.format("Range not satisfiable for %s, restarting", url));
+        } else {
+            con.disconnect();
+            throw new IOException(String.format("Unexpected response %d for %s", rc, url));
+        }
+
+        state.setProperty("total", String.valueOf(total));
+        metrics.setTotal(total);
+        metrics.resume(offset);
+        setOrRemove(state, "etag", con.getHeaderField("ETag"));
+        setOrRemove(state, "last-modified", con.getHeaderField("Last-Modified"));
+        state.setProperty("offset", String.valueOf(offset));
+        saveState(state, info);
+
+        long done = offset;
+        long checkpoint = offset + CHECKPOINT_INTERVAL;
+        try (InputStream in = track(con.getInputStream(), metrics); OutputStream out = new FileOutputStream(part, append)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+                done += n;
+                if (done >= checkpoint) {
+                    out.flush();
+                    state.setProperty("offset", String.valueOf(done));
+                    saveState(state, info);
+                    checkpoint = done + CHECKPOINT_INTERVAL;
+                }
+            }
+        } finally {
+            state.setProperty("offset", String.valueOf(part.length()));
+            saveState(state, info);
+        }
+
+        if (total >= 0 && part.length() != total) {
+            throw new IOException(String.format("Incomplete download of %s: %d of %d bytes", url, part.length(), total));
+        }
+    }
+
+    /**
+     * Downloads the url into the target file using several connections at
+     * the same time. The file is split into byte ranges that are fetched in
+     * parallel and written into a preallocated file at their positions.
+     * The position reached in each range is recorded next to the file, so
+     * after a restart of the installer each range continues where it
+     * stopped, as long as the server confirms the resource did not change.
+     * If the server does not support range requests this falls back to
+     * {@link #download(URL, File)}.
+     *
+     * @param url the url to download from
+     * @param target the file to store the data
+     * @param size the expected size in bytes
+     * @param segments the number of parallel connections
+     * @throws IOException something went wrong
+     */
+    public void downloadSegmented(URL url, File target, long size, int segments) throws IOException {
+        log.debug("downloadSegmented({}, {}, {}, {})", url, target, size, segments);
+        String validator = segments < 2 || size < segments * (long) BUFFER_SIZE ? null : probeRanges(url, size);
+        if (validator == null) {
+            download(url, target);
+            return;
+        }
+
+        partFolder.mkdirs();
+        File part = getSegmentsFile(url);
+        File info = getSegmentsInfoFile(url);
+        List<Segment> ranges = loadSegments(url, part, info, size, segments, validator);
+        if (!part.isFile()) {
+            try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+                raf.setLength(size);
+            }
+        }
+        Properties state = new Properties();
+        state.setProperty("url", url.toString());
+        state.setProperty("total", String.valueOf(size));
+        state.setProperty("segments", String.valueOf(ranges.size()));
+        state.setProperty("validator", validator);
+        saveSegments(state, info, ranges);
+
+        TransferMetrics metrics = newMetrics(url);
+        metrics.setTotal(size);
+        long done = 0;
+        for (Segment segment : ranges) {
+            done += segment.position - segment.from;
+        }
+        metrics.resume(done);
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Segment segment : ranges) {
+                futures.add(executor.submit(() -> {
+                    fetchSegment(url, channel, segment, validator, metrics, () -> saveSegments(state, info, ranges));
+                    return null;
+                }));
+            }
+            // the other segments go on, so each failure is only reported once all are done
+            Throwable failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failure = failure == null ? e.getCause() : failure;
+                }
+            }
+            if (failure != null) {
+                throw new IOException(String.format("Could not download %s to %s", url, target), failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted downloading %s", url), e);
+        } finally {
+            executor.shutdownNow();
+            saveSegments(state, info, ranges);
+            metrics.finish();
+        }
+
+        // the file was preallocated, so only the bytes written tell whether it is complete
+        for (Segment segment : ranges) {
+            if (segment.position != segment.to + 1) {
+                throw new IOException(String.format("Range %d-%d of %s stopped at %d", segment.from, segment.to, url, segment.position));
+            }
+        }
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        info.delete();
+        log.debug("stored in {}", target);
+    }
+
+    /**
+     * Returns the file holding a segmented download for the given url.
+     *
+     * @param url the url to download
+     * @return the .segments file
+     */
+    public File getSegmentsFile(URL url) {
+        return new File(partFolder, DigestUtils.sha1Hex(url.toString()) + ".segments");
+    }
+
+    /**
+     * Returns the file holding the positions reached in a segmented download.
+     *
+     * @param url the url to download
+     * @return the properties file
+     */
+    public File getSegmentsInfoFile(URL url) {
+        return new File(partFolder, DigestUtils.sha1Hex(url.toString()) + ".segments.properties");
+    }
+
+    /**
+     * Checks with a single byte request whether the server honors ranges
+     * and reports the expected size.
+     *
+     * @return the ETag or Last-Modified to send in If-Range, an empty string
+     * if the server sent neither, or null if ranges are not supported
+     */
+    private String probeRanges(URL url, long size) {
+        try {
+            URLConnection connection = url.openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                return null;
+            }
+            HttpURLConnection con = (HttpURLConnection) connection;
+            con.setConnectTimeout(CONNECT_TIMEOUT);
+            con.setReadTimeout(READ_TIMEOUT);
+            con.setRequestProperty("Range", "bytes=0-0");
+            try {
+                if (con.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                        || parseContentRangeTotal(con.getHeaderField("Content-Range")) != size) {
+                    return null;
+                }
+                // If-Range only accepts strong ETags
+                String etag = con.getHeaderField("ETag");
+                if (etag != null && !etag.startsWith("W/")) {
+                    return etag;
+                }
+                String lastModified = con.getHeaderField("Last-Modified");
+                return lastModified != null ? lastModified : "";
+            } finally {
+                con.disconnect();
+            }
+        } catch (IOException e) {
+            log.debug("Range probe for {} failed", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Splits the download into ranges. If a previous attempt recorded it's
+     * positions for the same resource, the ranges continue from there,
+     * otherwise the old file is discarded.
+     */
+    private List<Segment> loadSegments(URL url, File part, File info, long size, int segments, String validator) {
+        Properties state = new Properties();
+        if (info.isFile() && part.isFile()) {
+            try (InputStream in = new FileInputStream(info)) {
+                state.load(in);
+            } catch (IOException e) {
+                log.warn("Could not read download state {}", info, e);
+                state.clear();
+            }
+        }
+        boolean resume = !validator.isEmpty()
+                && url.toString().equals(state.getProperty("url"))
+                && String.valueOf(size).equals(state.getProperty("total"))
+                && String.valueOf(segments).equals(state.getProperty("segments"))
+                && validator.equals(state.getProperty("validator"))
+                && part.length() == size;
+        if (!resume) {
+            part.delete();
+        }
+
+        List<Segment> result = new ArrayList<>();
+        long segmentSize = (size + segments - 1) / segments;
+        for (long start = 0; start < size; start += segmentSize) {
+            Segment segment = new Segment(start, Math.min(size, start + segmentSize) - 1);
+            if (resume) {
+                try {
+                    long position = Long.parseLong(state.getProperty("segment." + result.size(), "-1"));
+                    if (position >= segment.from && position <= segment.to + 1) {
+                        segment.position = position;
+                    }
+                } catch (NumberFormatException e) {
+                    log.debug("Bad position for segment {} in {}", result.size(), info);
+                }
+            }
+            result.add(segment);
+        }
+        if (resume) {
+            log.debug("resuming {} segments of {}", result.size(), url);
+        }
+        return result;
+    }
+
+    private void saveSegments(Properties state, File info, List<Segment> ranges) {
+        synchronized (state) {
+            for (int i = 0; i < ranges.size(); i++) {
+                state.setProperty("segment." + i, String.valueOf(ranges.get(i).position));
+            }
+            saveState(state, info);
+        }
+    }
+
+    /**
+     * Fetches the bytes of a segment that are still missing and writes them
+     * at their position. A broken connection continues from the last byte
+     * written.
+     */
+    private void fetchSegment(URL url, FileChannel channel, Segment segment, String validator, TransferMetrics metrics, Runnable checkpoint) throws IOException {
+        IOException lastException = null;
+        for (int attempt = 1; attempt <= maxAttempts && segment.position <= segment.to; attempt++) {
+            if (attempt > 1) {
+                // a server resetting connections would otherwise use up all attempts at once
+                if (!backoff(attempt - 1)) {
+                    break;
+                }
+                metrics.retry();
+            }
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            con.setConnectTimeout(CONNECT_TIMEOUT);
+            con.setReadTimeout(READ_TIMEOUT);
+            con.setRequestProperty("Range", "bytes=" + segment.position + "-" + segment.to);
+            if (!validator.isEmpty()) {
+                // a changed resource is answered with 200 and the whole file instead
+                con.setRequestProperty("If-Range", validator);
+            }
+            try {
+                int rc = con.getResponseCode();
+                if (rc != HttpURLConnection.HTTP_PARTIAL
+                        || parseContentRangeStart(con.getHeaderField("Content-Range")) != segment.position) {
+                    throw new IOException(String.format("Unexpected response %d for range %d-%d of %s", rc, segment.position, segment.to, url));
+                }
+                try (InputStream in = track(con.getInputStream(), metrics)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    ByteBuffer bb = ByteBuffer.wrap(buffer);
+                    long next = segment.position + CHECKPOINT_INTERVAL;
+                    int n;
+                    while (segment.position <= segment.to
+                            && (n = in.read(buffer, 0, (int) Math.min(buffer.length, segment.to - segment.position + 1))) >= 0) {
+                        bb.clear().limit(n);
+                        while (bb.hasRemaining()) {
+                            segment.position += channel.write(bb, segment.position);
+                        }
+                        if (segment.position >= next) {
+                            checkpoint.run();
+                            next = segment.position + CHECKPOINT_INTERVAL;
+                        }
+                    }
+                }
+                if (segment.position <= segment.to) {
+                    throw new IOException(String.format("Range %d-%d of %s ended early at %d", segment.from, segment.to, url, segment.position));
+                }
+            } catch (IOException e) {
+                lastException = e;
+                log.info("Segment {}-{} of {} broke at {}", segment.from, segment.to, url, segment.position, e);
+            } finally {
+                con.disconnect();
+                checkpoint.run();
+            }
+        }
+        if (segment.position <= segment.to) {
+            throw new IOException(String.format("Could not fetch range %d-%d of %s", segment.from, segment.to, url), lastException);
+        }
+    }
+
+    /**
+     * Waits before the next attempt, longer after each failed one.
+     *
+     * @param failed the number of attempts failed so far
+     * @return false if the thread was interrupted
+     */
+    private static boolean backoff(int failed) {
+        try {
+            Thread.sleep(1000L * failed);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * One byte range of a segmented download.
+     */
+    private static class Segment {
+        private final long from;
+        private final long to;
+        private volatile long position;
+
+        Segment(long from, long to) {
+            this.from = from;
+            this.to = to;
+            this.position = from;
+        }
+    }
+
+    private TransferMetrics newMetrics(URL url) {
+        return new TransferMetrics(new File(url.getPath()).getName(), TransferMetrics.Kind.NETWORK, priority == TransferScheduler.Priority.MUSIC);
+    }
+
+    /**
+     * Subjects the stream to the transfer scheduler and counts it's bytes.
+     */
+    private InputStream track(InputStream in, TransferMetrics metrics) {
+        return metrics.count(TransferScheduler.getDefault().throttle(in, priority));
+    }
+
+    private static InputStream finishOnClose(InputStream in, TransferMetrics metrics) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    metrics.finish();
+                }
+            }
+        };
+    }
+
+    private static void setOrRemove(Properties props, String key, String value) {
+        if (value == null) {
+            props.remove(key);
+        } else {
+            props.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Parses the first byte position from a header like
+     * <code>bytes 100-199/200</code>.
+     */
+    static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        try {
+            String range = contentRange.trim().substring("bytes".length()).trim();
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (RuntimeException e) {
+            log.debug("Cannot parse Content-Range {}", contentRange);
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the complete length from a header like
+     * <code>bytes 100-199/200</code> or <code>bytes *&#47;200</code>.
+     */
+    static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null || contentRange.endsWith("/*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+        } catch (RuntimeException e) {
+            log.debug("Cannot parse Content-Range {}", contentRange);
+            return -1;
+        }
+    }
+}
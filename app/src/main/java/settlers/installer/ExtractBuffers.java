@@ -0,0 +1,143 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * The state one thread needs to extract archive entries: an Inflater, a
+ * CRC32, direct buffers for channel I/O and a heap buffer for streams.
+ * Instances are pooled and reused across entries and installations, so
+ * extracting does not churn the heap while the UI repaints.
+ *
+ * @author hiran
+ */
+public class ExtractBuffers {
+
+    /** Size of each buffer in bytes. */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+    private static final Queue<ExtractBuffers> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] array = new byte[BUFFER_SIZE];
+
+    private ExtractBuffers() {
+    }
+
+    /**
+     * Takes buffers from the pool, or creates new ones if the pool is empty.
+     * The Inflater and CRC32 are reset.
+     *
+     * @return the buffers
+     */
+    public static ExtractBuffers acquire() {
+        ExtractBuffers b = pool.poll();
+        if (b == null) {
+            b = new ExtractBuffers();
+        } else {
+            pooled.decrementAndGet();
+        }
+        b.inflater.reset();
+        b.crc.reset();
+        b.input.clear();
+        b.output.clear();
+        return b;
+    }
+
+    /**
+     * Returns the buffers to the pool.
+     */
+    public void release() {
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            pooled.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the Inflater for raw deflate data.
+     *
+     * @return the inflater
+     */
+    public Inflater getInflater() {
+        return inflater;
+    }
+
+    /**
+     * Returns the checksum.
+     *
+     * @return the crc
+     */
+    public CRC32 getCrc() {
+        return crc;
+    }
+
+    /**
+     * Returns the direct buffer for compressed data.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the direct buffer for uncompressed data.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the heap buffer for streams.
+     *
+     * @return the buffer
+     */
+    public byte[] getArray() {
+        return array;
+    }
+
+    /**
+     * Copies a stream into a file using a pooled buffer, unlike
+     * Files.copy which allocates one per call. The stream is not closed.
+     *
+     * @param in the stream to read
+     * @param target the file to write
+     * @return the number of bytes copied
+     * @throws IOException something went wrong
+     */
+    public static long copy(InputStream in, Path target) throws IOException {
+        ExtractBuffers b = acquire();
+        try (OutputStream out = Files.newOutputStream(target)) {
+            long total = 0;
+            int n;
+            while ((n = in.read(b.array)) >= 0) {
+                out.write(b.array, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            b.release();
+        }
+    }
+}
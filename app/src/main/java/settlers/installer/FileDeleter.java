@@ -0,0 +1,199 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Deletes directory trees using several threads.
+ * Each directory near the top of the tree is handled by a task of it's own,
+ * deeper subtrees are walked by the task that reached them. Symbolic links
+ * are deleted, not followed.
+ * To make removal look instant, a tree can be renamed into the trash folder
+ * and deleted in the background, see {@link #deleteLater(Path)}. Whatever is
+ * left in the trash when the application ends is deleted on the next start.
+ *
+ * @author hiran
+ */
+public class FileDeleter {
+    private static final Logger log = LogManager.getLogger(FileDeleter.class);
+
+    /** Directories up to this depth below the root are deleted in parallel. */
+    private static final int FORK_DEPTH = 3;
+
+    // deleting is bound by the file system rather than the processor
+    private static final ForkJoinPool pool = new ForkJoinPool(2 * Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "trash");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FileDeleter() {
+    }
+
+    /**
+     * Deletes a file, or a directory with all it's content.
+     *
+     * @param path the file or directory to delete
+     * @throws IOException some files could not be deleted
+     */
+    public static void delete(Path path) throws IOException {
+        log.debug("delete({})", path);
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            Files.deleteIfExists(path);
+            return;
+        }
+
+        Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+        pool.invoke(new DeleteTask(path, 0, failures));
+        IOException failure = failures.poll();
+        if (failure != null) {
+            for (IOException e : failures) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Moves a file or directory into the trash folder and deletes it in the
+     * background. If it cannot be moved there, it is deleted right away.
+     *
+     * @param path the file or directory to delete
+     * @throws IOException it could neither be moved nor deleted
+     */
+    public static void deleteLater(Path path) throws IOException {
+        log.debug("deleteLater({})", path);
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        File trash = Util.getTrashFolder();
+        trash.mkdirs();
+        Path trashed = trash.toPath().resolve(path.getFileName() + "-" + System.nanoTime());
+        try {
+            Files.move(path, trashed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Cannot move {} to the trash, deleting it now", path, e);
+            delete(path);
+            return;
+        }
+        background.submit(() -> deleteQuietly(trashed));
+    }
+
+    /**
+     * Deletes whatever is in the trash folder in the background.
+     */
+    public static void emptyTrash() {
+        File[] contents = Util.getTrashFolder().listFiles();
+        if (contents == null) {
+            return;
+        }
+        for (File f : contents) {
+            background.submit(() -> deleteQuietly(f.toPath()));
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            delete(path);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", path, e);
+        }
+    }
+
+    /**
+     * Deletes one directory. Subdirectories are forked off as tasks of their
+     * own, unless the directory is too deep in the tree.
+     */
+    private static class DeleteTask extends RecursiveAction {
+        private final Path dir;
+        private final int depth;
+        private final Queue<IOException> failures;
+
+        DeleteTask(Path dir, int depth, Queue<IOException> failures) {
+            this.dir = dir;
+            this.depth = depth;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> forked = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                        if (!d.equals(dir) && depth < FORK_DEPTH) {
+                            DeleteTask task = new DeleteTask(d, depth + 1, failures);
+                            task.fork();
+                            forked.add(task);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        try {
+                            Files.delete(file);
+                        } catch (IOException e) {
+                            failures.add(e);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failures.add(e);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                        if (e != null) {
+                            failures.add(e);
+                        } else if (!d.equals(dir)) {
+                            try {
+                                Files.delete(d);
+                            } catch (IOException ex) {
+                                failures.add(ex);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                failures.add(e);
+            }
+
+            // the directory itself can only go once the forked subtrees are gone
+            for (DeleteTask task : forked) {
+                task.join();
+            }
+            try {
+                Files.delete(dir);
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ */
+package settlers.installer;
+
+import com.owlike.genson.Genson;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.github.GHObject;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.extras.okhttp3.OkHttpGitHubConnector;
+
+/**
+ * Keeps the responses of the GitHub API on disk, so the catalog of available
+ * games survives restarts.
+ * Every request is revalidated with the ETag GitHub sent before
+ * (If-None-Match). Unchanged data is answered with 304 Not Modified, which
+ * does not count against the rate limit.
+ * A second connector prefers whatever is on disk, however old, so the game
+ * list can be shown right away on startup and refreshed in the background.
+ * Artifact downloads are not stored.
+ * The digests GitHub reports for release assets and artifacts are taken from
+ * the listings as they pass, so they need no request of their own.
+ * The rate limit headers of all responses feed the {@link RateLimitBudget}.
+ *
+ * @author hiran
+ */
+public class GitHubCatalog {
+    private static final Logger log = LogManager.getLogger(GitHubCatalog.class);
+
+    /** The catalog does not grow beyond this many bytes. */
+    public static final long MAX_SIZE = 50L * 1024 * 1024;
+
+    private static final Cache cache = new Cache(Util.getCatalogFolder(), MAX_SIZE);
+    /** SHA-256 by API url of asset or artifact, empty if GitHub reports none. */
+    private static final Map<String, String> digests = new ConcurrentHashMap<>();
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .cache(cache)
+            .addInterceptor(GitHubCatalog::skipDownloads)
+            .addInterceptor(GitHubCatalog::recordDigests)
+            .addNetworkInterceptor(GitHubCatalog::trackRateLimit)
+            .build();
+
+    private static volatile String token;
+
+    private GitHubCatalog() {
+    }
+
+    /**
+     * Sets the token for requests github-api does not make itself.
+     *
+     * @param githubToken the GitHub token, or null to send requests anonymously
+     */
+    public static void setToken(String githubToken) {
+        token = githubToken;
+    }
+
+    /**
+     * Returns the SHA-256 GitHub reports for a release asset or artifact.
+     * GitHub only knows digests of files uploaded since mid 2025.
+     * The digest is usually known from the listing the object came from.
+     * Only otherwise the object is requested from GitHub.
+     *
+     * @param object the GHAsset or GHArtifact
+     * @return the digest in hex, or null if GitHub reports none
+     */
+    @SuppressWarnings("unchecked")
+    public static String getDigest(GHObject object) {
+        String known = digests.get(object.getUrl().toString());
+        if (known != null) {
+            return known.isEmpty() ? null : known;
+        }
+        Request.Builder builder = new Request.Builder()
+                .url(object.getUrl().toString())
+                .header("Accept", "application/vnd.github+json");
+        if (token != null) {
+            builder.header("Authorization", "bearer " + token);
+        }
+        try (Response response = client.newCall(builder.build()).execute()) {
+            if (!response.isSuccessful()) {
+                log.debug("No digest for {}, GitHub answered {}", object.getUrl(), response.code());
+                return null;
+            }
+            Map<String, Object> json = new Genson().deserialize(response.body().string(), Map.class);
+            return json != null ? toSha256(json.get("digest")) : null;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not get the digest of {}", object.getUrl(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a connector that revalidates every response it stores.
+     *
+     * @return the connector
+     */
+    public static GitHubConnector getConnector() {
+        return new OkHttpGitHubConnector(client);
+    }
+
+    /**
+     * Returns a connector that answers from disk only, no matter how old the
+     * stored response is. Requests that were never made are not sent to
+     * GitHub; they fail with 504 Unsatisfiable Request.
+     *
+     * @return the connector
+     */
+    public static GitHubConnector getCachedConnector() {
+        return new OkHttpGitHubConnector(client.newBuilder()
+                .addInterceptor(GitHubCatalog::preferCache)
+                .build());
+    }
+
+    /**
+     * Returns the client behind the connectors, for requests github-api
+     * cannot make.
+     *
+     * @return the client
+     */
+    static OkHttpClient getClient() {
+        return client;
+    }
+
+    private static Response skipDownloads(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        if (isDownload(request)) {
+            request = request.newBuilder()
+                    .cacheControl(new CacheControl.Builder().noStore().build())
+                    .build();
+        }
+        return chain.proceed(request);
+    }
+
+    private static Response preferCache(Interceptor.Chain chain) throws IOException {
+        if (isDownload(chain.request())) {
+            return chain.proceed(chain.request());
+        }
+        // replaces the max-age=0 the connector sets to force revalidation
+        Request request = chain.request().newBuilder()
+                .cacheControl(CacheControl.FORCE_CACHE)
+                .build();
+        Response response = chain.proceed(request);
+        log.trace("{} answered {} from disk", request.url(), response.code());
+        return response;
+    }
+
+    private static Response recordDigests(Interceptor.Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        String path = chain.request().url().encodedPath();
+        if (response.isSuccessful() && !isDownload(chain.request())
+                && (path.contains("/releases") || path.contains("/artifacts"))) {
+            try {
+                collectDigests(new Genson().deserialize(response.peekBody(Long.MAX_VALUE).string(), Object.class));
+            } catch (RuntimeException e) {
+                log.debug("Cannot read digests from {}", chain.request().url(), e);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Records the digest of every asset or artifact in a response. Assets
+     * and artifacts are the objects with a download url.
+     */
+    @SuppressWarnings("unchecked")
+    private static void collectDigests(Object json) {
+        if (json instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) json;
+            boolean downloadable = map.containsKey("browser_download_url") || map.containsKey("archive_download_url");
+            if (downloadable && map.get("url") instanceof String) {
+                String digest = toSha256(map.get("digest"));
+                digests.put((String) map.get("url"), digest != null ? digest : "");
+            }
+            for (Object value : map.values()) {
+                collectDigests(value);
+            }
+        } else if (json instanceof List) {
+            for (Object value : (List<Object>) json) {
+                collectDigests(value);
+            }
+        }
+    }
+
+    private static String toSha256(Object digest) {
+        if (digest instanceof String && ((String) digest).startsWith("sha256:")) {
+            return ((String) digest).substring("sha256:".length());
+        }
+        return null;
+    }
+
+    private static Response trackRateLimit(Interceptor.Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        String limit = response.header("X-RateLimit-Limit");
+        String remaining = response.header("X-RateLimit-Remaining");
+        String reset = response.header("X-RateLimit-Reset");
+        if (limit != null && remaining != null && reset != null) {
+            String resource = response.header("X-RateLimit-Resource");
+            try {
+                RateLimitBudget.get(resource != null ? resource : RateLimitBudget.CORE)
+                        .update(Integer.parseInt(limit), Integer.parseInt(remaining), Long.parseLong(reset));
+            } catch (NumberFormatException e) {
+                log.debug("Cannot parse rate limit headers of {}", chain.request().url(), e);
+            }
+        }
+        return response;
+    }
+
+    private static boolean isDownload(Request request) {
+        // artifact archives are kept by the ArtifactCache
+        return request.url().encodedPath().endsWith("/zip");
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ */
+package settlers.installer;
+
+import com.owlike.genson.Genson;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.PagedIterator;
+
+/**
+ * Finds the workflow runs that still have artifacts with a few batched
+ * requests instead of one request per workflow and run, see
+ * {@link CatalogCrawler}.
+ * One GraphQL query returns the workflow runs of the latest commits on the
+ * default branch. GraphQL cannot list branches by their last update, so the
+ * runs of other branches come from one or two pages of the repository's
+ * REST run listing, which covers all branches newest first. GraphQL knows
+ * nothing about Actions artifacts, so one REST request lists the artifacts
+ * of the repository, each naming the run it belongs to. Runs found in the
+ * listing need not be loaded again; only older runs of the default branch
+ * are loaded one by one. Runs up to the newest one seen before per workflow are skipped, see
+ * {@link CatalogSync}. Runs that are queued or still running may upload
+ * artifacts later, so the mark stays below the oldest of them.
+ * GraphQL needs a token, so this only works for authenticated users.
+ *
+ * @author hiran
+ */
+public class GraphQLCatalog {
+    private static final Logger log = LogManager.getLogger(GraphQLCatalog.class);
+
+    private static final String GRAPHQL_URL = "https://api.github.com/graphql";
+    private static final String ARTIFACTS_URL = "https://api.github.com/repos/%s/actions/artifacts?per_page=%d&page=%d";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /** Number of artifacts per REST page, the most GitHub allows. */
+    private static final int PAGE_SIZE = 100;
+    /** Number of artifact pages read at most. */
+    private static final int MAX_PAGES = 5;
+    /** Number of check suites read per commit. */
+    private static final int SUITES_PER_COMMIT = 10;
+    /** Number of run listing pages read. */
+    private static final int MAX_RUN_PAGES = 2;
+
+    private static final String RUNS_QUERY = "query($owner: String!, $name: String!, $commits: Int!, $suites: Int!) {"
+            + " repository(owner: $owner, name: $name) {"
+            + " defaultBranchRef { target { ... on Commit {"
+            + " history(first: $commits) { nodes {"
+            + " checkSuites(first: $suites) { nodes { status workflowRun { databaseId workflow { databaseId } } } }"
+            + " } } } } } } }";
+
+    private final String token;
+
+    /**
+     * Creates a catalog.
+     *
+     * @param token the GitHub token to authenticate with
+     */
+    public GraphQLCatalog(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Collects the newest runs with artifacts.
+     *
+     * @param repository the repository to look at
+     * @param limit the number of runs to find
+     * @param reserve the number of requests to leave in the {@link RateLimitBudget}
+     * @param marks the newest run seen per workflow, updated once all runs are loaded, below any run not completed
+     * @return the runs newer than the marks, newest first, at most limit
+     * @throws IOException something went wrong, the caller should fall back to the {@link CatalogCrawler}
+     */
+    public List<GHWorkflowRun> findRunsWithArtifacts(GHRepository repository, int limit, int reserve, Map<Long, Long> marks) throws IOException {
+        log.debug("findRunsWithArtifacts({}, {})", repository.getFullName(), limit);
+        if (!RateLimitBudget.get(RateLimitBudget.GRAPHQL).tryAcquire(reserve)) {
+            throw new IOException("GraphQL rate limit exhausted");
+        }
+        Set<Long> incomplete = new HashSet<>();
+        Map<Long, Long> workflows = queryRuns(repository.getFullName(), limit, incomplete);
+        Map<Long, GHWorkflowRun> listed = listRuns(repository, reserve);
+        for (GHWorkflowRun run : listed.values()) {
+            workflows.put(run.getId(), run.getWorkflowId());
+            if (run.getStatus() != GHWorkflowRun.Status.COMPLETED) {
+                incomplete.add(run.getId());
+            }
+        }
+        List<Long> runIds = new ArrayList<>();
+        Map<Long, Long> newest = new HashMap<>(marks);
+        Map<Long, Long> caps = new HashMap<>();
+        for (Map.Entry<Long, Long> run : workflows.entrySet()) {
+            if (run.getKey() > marks.getOrDefault(run.getValue(), 0L)) {
+                runIds.add(run.getKey());
+                newest.merge(run.getValue(), run.getKey(), Math::max);
+                if (incomplete.contains(run.getKey())) {
+                    caps.merge(run.getValue(), run.getKey() - 1, Math::min);
+                }
+            }
+        }
+        // runs not completed yet must be looked at again
+        for (Map.Entry<Long, Long> cap : caps.entrySet()) {
+            newest.merge(cap.getKey(), cap.getValue(), Math::min);
+        }
+        if (runIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // run ids grow over time, so the newest run has the highest id
+        runIds.sort((a, b) -> Long.compare(b, a));
+        Set<Long> withArtifacts = listArtifactRuns(repository.getFullName(), runIds.get(runIds.size() - 1), reserve);
+
+        List<Long> wanted = new ArrayList<>();
+        for (Long id : runIds) {
+            if (wanted.size() < limit && withArtifacts.contains(id)) {
+                wanted.add(id);
+            }
+        }
+        List<GHWorkflowRun> result = loadRuns(repository, wanted, listed, reserve);
+        if (result.size() < wanted.size()) {
+            // the runs not loaded must be looked at next time
+            log.debug("loaded {} of {} runs with artifacts before the budget ran out", result.size(), wanted.size());
+            return result;
+        }
+        marks.putAll(newest);
+        log.debug("found {} runs with artifacts", result.size());
+        return result;
+    }
+
+    /**
+     * Returns the newest runs of all branches from the repository's run
+     * listing, 100 per request.
+     *
+     * @return run id to run
+     */
+    private Map<Long, GHWorkflowRun> listRuns(GHRepository repository, int reserve) throws IOException {
+        Map<Long, GHWorkflowRun> result = new HashMap<>();
+        PagedIterator<GHWorkflowRun> it = repository.queryWorkflowRuns().list().withPageSize(PAGE_SIZE).iterator();
+        for (int seen = 0; seen < MAX_RUN_PAGES * PAGE_SIZE; seen++) {
+            // each page is one request
+            if (seen % PAGE_SIZE == 0 && !RateLimitBudget.getDefault().tryAcquire(reserve)) {
+                // a run missing here would be skipped by the marks
+                throw new IOException("GitHub rate limit exhausted");
+            }
+            if (!it.hasNext()) {
+                break;
+            }
+            GHWorkflowRun run = it.next();
+            result.put(run.getId(), run);
+        }
+        log.debug("listed {} runs", result.size());
+        return result;
+    }
+
+    /**
+     * Loads the given runs. Runs in the listing are taken from there, only
+     * older ones are loaded one by one.
+     *
+     * @param ids the runs to load, newest first
+     * @param listed the runs listed already by id
+     * @return the runs in the same order, fewer if the budget ran out
+     */
+    private List<GHWorkflowRun> loadRuns(GHRepository repository, List<Long> ids, Map<Long, GHWorkflowRun> listed, int reserve) throws IOException {
+        Map<Long, GHWorkflowRun> found = new HashMap<>(listed);
+        for (Long id : ids) {
+            if (!found.containsKey(id)) {
+                if (!RateLimitBudget.getDefault().tryAcquire(reserve)) {
+                    break;
+                }
+                found.put(id, repository.getWorkflowRun(id));
+            }
+        }
+
+        List<GHWorkflowRun> result = new ArrayList<>();
+        for (Long id : ids) {
+            if (!found.containsKey(id)) {
+                break;
+            }
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the workflow runs of the latest commits on the default branch.
+     *
+     * @param incomplete receives the runs that are not completed yet
+     * @return run id to workflow id
+     */
+    private Map<Long, Long> queryRuns(String repository, int commits, Set<Long> incomplete) throws IOException {
+        String[] parts = repository.split("/", 2);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("owner", parts[0]);
+        variables.put("name", parts[1]);
+        variables.put("commits", commits);
+        variables.put("suites", SUITES_PER_COMMIT);
+        Map<String, Object> query = new HashMap<>();
+        query.put("query", RUNS_QUERY);
+        query.put("variables", variables);
+
+        Request request = new Request.Builder()
+                .url(GRAPHQL_URL)
+                .header("Authorization", "bearer " + token)
+                .post(RequestBody.create(new Genson().serialize(query), JSON))
+                .build();
+        Map<String, Object> response = execute(request);
+        if (response.get("errors") != null) {
+            throw new IOException(String.format("GraphQL query failed: %s", response.get("errors")));
+        }
+
+        Map<Long, Long> result = new HashMap<>();
+        Map<String, Object> history = path(response, "data", "repository", "defaultBranchRef", "target", "history");
+        for (Map<String, Object> commit : nodes(history)) {
+            for (Map<String, Object> suite : nodes(path(commit, "checkSuites"))) {
+                Map<String, Object> run = path(suite, "workflowRun");
+                Map<String, Object> workflow = path(run, "workflow");
+                if (run != null && run.get("databaseId") instanceof Number
+                        && workflow != null && workflow.get("databaseId") instanceof Number) {
+                    long id = ((Number) run.get("databaseId")).longValue();
+                    result.put(id, ((Number) workflow.get("databaseId")).longValue());
+                    if (!"COMPLETED".equals(suite.get("status"))) {
+                        incomplete.add(id);
+                    }
+                }
+            }
+        }
+        log.debug("GraphQL returned {} runs", result.size());
+        return result;
+    }
+
+    /**
+     * Returns the ids of the runs that have unexpired artifacts. Artifacts
+     * come newest first, pages are read until the oldest run of interest is
+     * reached.
+     */
+    private Set<Long> listArtifactRuns(String repository, long oldestRun, int reserve) throws IOException {
+        Set<Long> result = new HashSet<>();
+        for (int page = 1; page <= MAX_PAGES; page++) {
+            if (!RateLimitBudget.getDefault().tryAcquire(reserve)) {
+                // a run missing here would be taken as one without artifacts
+                throw new IOException("GitHub rate limit exhausted");
+            }
+            Request request = new Request.Builder()
+                    .url(String.format(ARTIFACTS_URL, repository, PAGE_SIZE, page))
+                    .header("Authorization", "bearer " + token)
+                    .header("Accept", "application/vnd.github+json")
+                    .build();
+            Object artifacts = execute(request).get("artifacts");
+            if (!(artifacts instanceof List)) {
+                break;
+            }
+            List<?> list = (List<?>) artifacts;
+            long oldest = Long.MAX_VALUE;
+            for (Object o : list) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> artifact = (Map<String, Object>) o;
+                Map<String, Object> run = path(artifact, "workflow_run");
+                if (run != null && run.get("id") instanceof Number) {
+                    long id = ((Number) run.get("id")).longValue();
+                    oldest = Math.min(oldest, id);
+                    if (!Boolean.TRUE.equals(artifact.get("expired"))) {
+                        result.add(id);
+                    }
+                }
+            }
+            if (list.size() < PAGE_SIZE || oldest <= oldestRun) {
+                break;
+            }
+        }
+        log.debug("{} runs have artifacts", result.size());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> execute(Request request) throws IOException {
+        try (Response response = GitHubCatalog.getClient().newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException(String.format("%s answered %d", request.url(), response.code()));
+            }
+            Map<String, Object> result = new Genson().deserialize(response.body().string(), Map.class);
+            if (result == null) {
+                throw new IOException(String.format("%s answered nothing", request.url()));
+            }
+            return result;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> path(Map<String, Object> map, String... keys) {
+        Map<String, Object> result = map;
+        for (String key : keys) {
+            if (result == null || !(result.get(key) instanceof Map)) {
+                return null;
+            }
+            result = (Map<String, Object>) result.get(key);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> nodes(Map<String, Object> connection) {
+        if (connection == null || !(connection.get("nodes") instanceof List)) {
+            return new ArrayList<>();
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Object o : (List<Object>) connection.get("nodes")) {
+            if (o instanceof Map) {
+                result.add((Map<String, Object>) o);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ */
+package settlers.installer;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Collects the foreground transfers of one installation, so a single log
+ * line shows how much time went into the network and how much into the disk.
+ *
+ * @author hiran
+ */
+public class InstallSummary implements TransferListener {
+
+    private final Map<TransferMetrics.Kind, long[]> totals = new EnumMap<>(TransferMetrics.Kind.class);
+    private int retries;
+
+    @Override
+    public void transferUpdated(TransferMetrics metrics) {
+        // only finished transfers are summed up
+    }
+
+    @Override
+    public synchronized void transferFinished(TransferMetrics metrics) {
+        if (metrics.isBackground()) {
+            return;
+        }
+        long[] t = totals.computeIfAbsent(metrics.getKind(), k -> new long[2]);
+        t[0] += metrics.getDone();
+        t[1] += metrics.getElapsed();
+        retries += metrics.getRetries();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<TransferMetrics.Kind, long[]> e : totals.entrySet()) {
+            long bytes = e.getValue()[0];
+            long nanos = e.getValue()[1];
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%s %s in %.1f s (%s/s)", e.getKey(), TransferMetrics.formatBytes(bytes),
+                    nanos / 1e9, TransferMetrics.formatBytes(nanos > 0 ? bytes * 1e9 / nanos : 0)));
+        }
+        if (sb.length() == 0) {
+            sb.append("nothing transferred");
+        }
+        sb.append(", ").append(retries).append(" retries");
+        return sb.toString();
+    }
+}
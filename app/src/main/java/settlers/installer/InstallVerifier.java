@@ -0,0 +1,217 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.model.InstallManifest;
+import settlers.installer.model.InstalledFile;
+
+/**
+ * Checks a game installation against it's {@link InstallManifest} and
+ * repairs damaged files from the cached archive.
+ * A quick check only compares existence and size of each file. A full check
+ * also reads every file and compares it's CRC-32 and, where recorded, it's
+ * SHA-256. Files are checked in parallel.
+ *
+ * @author hiran
+ */
+public class InstallVerifier {
+    private static final Logger log = LogManager.getLogger(InstallVerifier.class);
+
+    private final int threads;
+
+    /**
+     * Creates a verifier using one thread per processor.
+     */
+    public InstallVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a verifier.
+     *
+     * @param threads the number of worker threads
+     */
+    public InstallVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Checks the files of an installation.
+     *
+     * @param installFolder the installation
+     * @param full true to compare checksums, false to compare sizes only
+     * @return the damaged files, or null if the installation has no manifest
+     * @throws IOException the check was interrupted
+     */
+    public List<InstalledFile> verify(File installFolder, boolean full) throws IOException {
+        log.debug("verify({}, {})", installFolder, full);
+        InstallManifest manifest = InstallManifest.load(installFolder);
+        if (manifest == null) {
+            return null;
+        }
+
+        Path root = installFolder.toPath();
+        List<InstalledFile> result = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, manifest.getFiles().size())));
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (InstalledFile f : manifest.getFiles()) {
+                futures.add(executor.submit(() -> check(root, f, full)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).get()) {
+                    result.add(manifest.getFiles().get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted verifying %s", installFolder), e);
+        } catch (ExecutionException e) {
+            throw new IOException(String.format("Could not verify %s", installFolder), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.debug("{} of {} files damaged in {}", result.size(), manifest.getFiles().size(), installFolder);
+        return result;
+    }
+
+    /**
+     * Extracts the given files again from the archive the installation was
+     * made from. This only works while the archive is in the
+     * {@link ArtifactCache}.
+     * A damaged file that is a link into the {@link BlobStore} means the blob
+     * itself is damaged, so the blob is replaced as well. Other installations
+     * still linking to the damaged content are repaired when they are
+     * verified.
+     *
+     * @param installFolder the installation
+     * @param damaged the files to restore, as returned by {@link #verify(File, boolean)}
+     * @return true if all files were restored
+     */
+    public boolean repair(File installFolder, List<InstalledFile> damaged) {
+        log.debug("repair({}, {} files)", installFolder, damaged.size());
+        InstallManifest manifest = InstallManifest.load(installFolder);
+        if (manifest == null || manifest.getArchiveId() == 0) {
+            log.info("Cannot repair {}, the archive is unknown", installFolder);
+            return false;
+        }
+        // only workflow run artifacts carry their archive inside another one
+        ArtifactCache.Kind kind = manifest.getInnerArchive() != null ? ArtifactCache.Kind.ARTIFACT : ArtifactCache.Kind.ASSET;
+        ArtifactCache cache = new ArtifactCache();
+        File archive = cache.get(kind, manifest.getArchiveId());
+        if (archive == null) {
+            log.info("Cannot repair {}, the archive is no longer cached", installFolder);
+            return false;
+        }
+        // a repair is rare and must not restore from a damaged archive
+        if (!cache.verify(archive)) {
+            log.info("Cannot repair {}, the cached archive is damaged", installFolder);
+            return false;
+        }
+
+        try {
+            BlobStore store = new BlobStore();
+            Set<String> names = new HashSet<>();
+            for (InstalledFile f : damaged) {
+                Path file = installFolder.toPath().resolve(f.getName());
+                if (f.getSha256() != null) {
+                    Path blob = store.getBlob(f.getSha256());
+                    if (Files.exists(file) && Files.exists(blob) && Files.isSameFile(file, blob)) {
+                        Files.delete(blob);
+                    }
+                }
+                Files.deleteIfExists(file);
+                names.add(f.getName());
+            }
+
+            ZipExtractor extractor = new ZipExtractor(threads);
+            extractor.setDigest(true);
+            extractor.setFilter(names::contains);
+            if (manifest.getInnerArchive() != null) {
+                extractor.extractNested(archive, manifest.getInnerArchive(), installFolder, null);
+            } else {
+                extractor.extract(archive, installFolder, null);
+            }
+
+            Map<String, String> digests = extractor.getDigests();
+            for (InstalledFile f : damaged) {
+                if (f.getSha256() != null && !f.getSha256().equals(digests.get(f.getName()))) {
+                    log.warn("Cannot repair {}, the cached archive has different content for {}", installFolder, f.getName());
+                    return false;
+                }
+            }
+
+            InstallManifest repaired = new InstallManifest();
+            repaired.setFiles(damaged);
+            store.add(installFolder, repaired, null);
+            log.info("repaired {} files in {}", damaged.size(), installFolder);
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not repair {}", installFolder, e);
+            return false;
+        }
+    }
+
+    private static boolean check(Path root, InstalledFile f, boolean full) {
+        Path file = root.resolve(f.getName());
+        try {
+            if (!Files.isRegularFile(file) || Files.size(file) != f.getSize()) {
+                log.debug("{} is missing or has the wrong size", file);
+                return false;
+            }
+            if (!full) {
+                return true;
+            }
+
+            CRC32 crc = new CRC32();
+            MessageDigest md = f.getSha256() != null ? ZipExtractor.newDigest() : null;
+            ExtractBuffers buffers = ExtractBuffers.acquire();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = buffers.getInput();
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    crc.update(buffer.duplicate());
+                    if (md != null) {
+                        md.update(buffer);
+                    }
+                    buffer.clear();
+                }
+            } finally {
+                buffers.release();
+            }
+            if (f.getCrc() != -1 && crc.getValue() != f.getCrc()) {
+                log.debug("{} has the wrong CRC-32", file);
+                return false;
+            }
+            if (md != null && !f.getSha256().equals(Hex.encodeHexString(md.digest()))) {
+                log.debug("{} has the wrong SHA-256", file);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("Cannot read {}", file, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.model.InstallManifest;
+import settlers.installer.model.InstalledFile;
+
+/**
+ * Finds files of other installed game versions by size and CRC-32, using
+ * their install manifests. Identical files can then be linked instead of
+ * being extracted again.
+ *
+ * @author hiran
+ */
+public class InstalledFileIndex {
+    private static final Logger log = LogManager.getLogger(InstalledFileIndex.class);
+
+    private final Map<String, Path> files = new HashMap<>();
+    private final Map<String, String> digests = new HashMap<>();
+
+    /**
+     * Indexes all installations in the games folder.
+     *
+     * @param gamesFolder the folder containing the installations
+     * @param exclude the installation being written, it is not indexed
+     * @return the index
+     */
+    public static InstalledFileIndex build(File gamesFolder, File exclude) {
+        InstalledFileIndex index = new InstalledFileIndex();
+        File[] installs = gamesFolder.listFiles(File::isDirectory);
+        if (installs == null) {
+            return index;
+        }
+        for (File install : installs) {
+            if (install.equals(exclude)) {
+                continue;
+            }
+            InstallManifest manifest = InstallManifest.load(install);
+            if (manifest == null) {
+                continue;
+            }
+            for (InstalledFile f : manifest.getFiles()) {
+                String key = key(f.getSize(), f.getCrc());
+                index.files.putIfAbsent(key, install.toPath().resolve(f.getName()));
+                if (f.getSha256() != null) {
+                    index.digests.putIfAbsent(key, f.getSha256());
+                }
+            }
+        }
+        log.debug("indexed {} files", index.files.size());
+        return index;
+    }
+
+    /**
+     * Checks whether the index knows any files.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Returns an installed file with the given size and CRC-32.
+     *
+     * @param size the size in bytes
+     * @param crc the CRC-32
+     * @return the file, or null if none is known or it changed meanwhile
+     */
+    public Path find(long size, long crc) {
+        Path p = files.get(key(size, crc));
+        try {
+            if (p != null && Files.isRegularFile(p) && Files.size(p) == size) {
+                return p;
+            }
+        } catch (IOException e) {
+            log.debug("Cannot use {}", p, e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the SHA-256 recorded for an installed file with the given size
+     * and CRC-32.
+     *
+     * @param size the size in bytes
+     * @param crc the CRC-32
+     * @return the digest in hex, or null if not known
+     */
+    public String findSha256(long size, long crc) {
+        return digests.get(key(size, crc));
+    }
+
+    private static String key(long size, long crc) {
+        return size + ":" + crc;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.model.MusicManifest;
+import settlers.installer.model.MusicTrack;
+
+/**
+ * Fetches the music soundtrack in the background.
+ * Tracks are downloaded on a small thread pool, with a limit on concurrent
+ * connections per host. Each track is converted to ogg by the same worker as
+ * soon as its own download finishes, so conversion overlaps with the other
+ * downloads and spreads across cores. The conversion runs the external
+ * dir2ogg tool on the single file; Java offers no mp3 decoder or Vorbis
+ * encoder to do it in process.
+ * Progress is recorded in a manifest inside the music folder. The launch
+ * path only reads that manifest to decide whether anything needs to be done.
+ *
+ * @author hiran
+ */
+public class MusicSync {
+    private static final Logger log = LogManager.getLogger(MusicSync.class);
+
+    /** Number of tracks processed at the same time. */
+    private static final int MAX_PARALLEL = 4;
+    /** Number of concurrent connections to the same host. */
+    private static final int MAX_PER_HOST = 2;
+
+    /** Track url and local filename. */
+    private static final String[][] TRACKS = {
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/cjllbhbk/Track02.mp3", "Track02.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/yqtjxvfd/Track03.mp3", "Track03.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/guohbfll/Track04.mp3", "Track04.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/qshzkbmf/Track05.mp3", "Track05.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/ditkixfr/Track06.mp3", "Track06.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xncrscbv/Track07.mp3", "Track07.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xbicjisa/Track08.mp3", "Track08.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/qiapnlgt/Track09.mp3", "Track09.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/sxensioh/Track10.mp3", "Track10.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/oiclfhiy/Track11.mp3", "Track11.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/mjaqypyv/Track12.mp3", "Track12.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xcuqzsvg/Track13.mp3", "Track13.ogg"},
+        {"https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/yypsitan/Track14.mp3", "Track14.ogg"},
+    };
+
+    /** The tool converting mp3 to ogg. */
+    private static final String TRANSCODER = "dir2ogg";
+
+    private static CompletableFuture<Void> running;
+    private static MusicManifest manifest;
+
+    private MusicSync() {
+    }
+
+    /**
+     * Returns the file storing the music manifest.
+     *
+     * @return the file
+     */
+    public static File getManifestFile() {
+        return new File(Util.getMusicFolder(), "manifest.json");
+    }
+
+    /**
+     * Checks from the manifest whether all tracks are ready to be played.
+     * This does not look at the track files.
+     *
+     * @return true if all tracks are transcoded
+     */
+    public static synchronized boolean isComplete() {
+        if (manifest == null) {
+            manifest = MusicManifest.load(getManifestFile());
+        }
+        for (String[] track : TRACKS) {
+            MusicTrack entry = manifest.getTrack(track[0]);
+            if (entry == null || entry.getStatus() != MusicTrack.Status.transcoded) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the background sync unless the manifest says all tracks are
+     * present already.
+     */
+    public static void startIfIncomplete() {
+        if (isComplete()) {
+            log.debug("music is complete");
+            return;
+        }
+        start().whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("Problem downloading music", e);
+            }
+        });
+    }
+
+    /**
+     * Starts fetching missing tracks in the background. If a sync is running
+     * already, no second one is started.
+     *
+     * @return the future completing when all tracks are processed
+     */
+    public static synchronized CompletableFuture<Void> start() {
+        if (running != null && !running.isDone()) {
+            log.debug("music sync already running");
+            return running;
+        }
+
+        File folder = Util.getMusicFolder();
+        folder.mkdirs();
+        if (manifest == null) {
+            manifest = MusicManifest.load(getManifestFile());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL, r -> {
+            Thread t = new Thread(r, "music sync");
+            t.setDaemon(true);
+            return t;
+        });
+        Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (String[] track : TRACKS) {
+            MusicTrack entry = getEntry(track[0], track[1]);
+            File target = new File(folder, entry.getFile());
+            if (entry.getStatus() == MusicTrack.Status.transcoded && target.length() == entry.getSize()) {
+                continue;
+            }
+            tasks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    sync(new URL(track[0]), entry, target, hostPermits);
+                    update(entry, MusicTrack.Status.transcoded, target);
+                } catch (Exception e) {
+                    log.warn("Could not fetch {}", track[0], e);
+                    update(entry, MusicTrack.Status.failed, null);
+                }
+            }, executor));
+        }
+        log.debug("fetching {} tracks", tasks.size());
+
+        running = CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]))
+                .whenComplete((result, e) -> executor.shutdown());
+        return running;
+    }
+
+    /**
+     * Returns the manifest entry for a track, creating it if needed.
+     */
+    private static synchronized MusicTrack getEntry(String url, String file) {
+        MusicTrack entry = manifest.getTrack(url);
+        if (entry == null) {
+            entry = new MusicTrack();
+            entry.setUrl(url);
+            entry.setFile(file);
+            manifest.getTracks().add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Records the new state of a track and stores the manifest.
+     */
+    private static void update(MusicTrack entry, MusicTrack.Status status, File file) {
+        long size = 0;
+        String digest = null;
+        if (file != null) {
+            try (InputStream in = new FileInputStream(file)) {
+                size = file.length();
+                digest = DigestUtils.sha256Hex(in);
+            } catch (IOException e) {
+                log.warn("Could not compute digest for {}", file, e);
+                status = MusicTrack.Status.failed;
+            }
+        }
+        synchronized (MusicSync.class) {
+            entry.setStatus(status);
+            entry.setSize(size);
+            entry.setDigest(digest);
+            manifest.save(getManifestFile());
+        }
+    }
+
+    /**
+     * Downloads a single track and converts it. Once the download is
+     * complete, the track is recorded as downloaded, so a failed conversion
+     * can be told from a failed download.
+     */
+    private static void sync(URL url, MusicTrack entry, File target, Map<String, Semaphore> hostPermits) throws IOException, InterruptedException {
+        log.info("sync({}, {})", url, target);
+        File mp3 = new File(target.getParentFile(), new File(url.getFile()).getName());
+
+        if (target.exists()) {
+            // converted by an earlier version that kept no manifest
+            return;
+        }
+        if (!mp3.exists()) {
+            Semaphore permit = hostPermits.computeIfAbsent(url.getHost(), h -> new Semaphore(MAX_PER_HOST));
+            permit.acquire();
+            try {
+                Downloader downloader = new Downloader();
+                downloader.setPriority(TransferScheduler.Priority.MUSIC);
+                downloader.download(url, mp3);
+            } finally {
+                permit.release();
+            }
+        }
+        update(entry, MusicTrack.Status.downloaded, mp3);
+
+        transcode(mp3, target);
+    }
+
+    /**
+     * Converts a single mp3 file to ogg and removes the mp3.
+     */
+    private static void transcode(File mp3, File target) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(TRANSCODER, mp3.getAbsolutePath());
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        Process p = pb.start();
+        int rc = p.waitFor();
+        log.info("{} {} returned with {}", TRANSCODER, mp3.getName(), rc);
+        if (rc != 0) {
+            throw new IOException(TRANSCODER + " returned with " + rc);
+        }
+
+        // dir2ogg writes next to the source, using the same base name
+        String name = mp3.getName();
+        int dot = name.lastIndexOf('.');
+        File written = new File(mp3.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".ogg");
+        if (!written.isFile() || written.length() == 0) {
+            written.delete();
+            throw new IOException(TRANSCODER + " returned with " + rc + " but wrote nothing for " + mp3.getName());
+        }
+        if (!written.equals(target)) {
+            Files.move(written.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        mp3.delete();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+
+/**
+ * Tracks the GitHub rate limit locally.
+ * The budget is updated from the X-RateLimit-* headers of every response, see
+ * {@link GitHubCatalog}, and from the records github-api hands to it's
+ * RateLimitChecker. Callers check the budget or take permits from it in
+ * memory instead of asking GitHub for the rate limit.
+ * When few requests remain, {@link #pace()} spreads the rest evenly until
+ * the limit is reset, waiting at most {@link #MAX_PACE_MILLIS} per request.
+ * Only background work like the {@link CatalogCrawler} is paced; requests
+ * the user waits for are not delayed. An exhausted budget is reported to the
+ * caller, see {@link #isExhausted(int)}, nothing waits for the reset.
+ *
+ * @author hiran
+ */
+public class RateLimitBudget {
+    private static final Logger log = LogManager.getLogger(RateLimitBudget.class);
+
+    /** The resource of the REST API. */
+    public static final String CORE = "core";
+    /** The resource of the GraphQL API. */
+    public static final String GRAPHQL = "graphql";
+
+    /** Below this many remaining requests, requests are spread until the reset. */
+    public static final int PACING_THRESHOLD = 100;
+
+    /** Upper limit for the delay of a single request in milliseconds. */
+    public static final long MAX_PACE_MILLIS = 3000;
+
+    /** Length of a rate limit window in seconds. */
+    private static final long WINDOW_SECONDS = 3600;
+
+    private static final Map<String, RateLimitBudget> budgets = new ConcurrentHashMap<>();
+
+    private boolean known;
+    private int limit;
+    private int remaining;
+    private long resetEpochSeconds;
+    private long nextGrant;
+
+    /**
+     * Returns the budget of the REST API.
+     *
+     * @return the budget
+     */
+    public static RateLimitBudget getDefault() {
+        return get(CORE);
+    }
+
+    /**
+     * Returns the budget of a resource.
+     *
+     * @param resource the resource as named in the X-RateLimit-Resource header
+     * @return the budget
+     */
+    public static RateLimitBudget get(String resource) {
+        return budgets.computeIfAbsent(resource, r -> new RateLimitBudget());
+    }
+
+    /**
+     * Takes the state reported by GitHub.
+     *
+     * @param limit the number of requests per window
+     * @param remaining the number of requests left in the window
+     * @param resetEpochSeconds the end of the window
+     */
+    public synchronized void update(int limit, int remaining, long resetEpochSeconds) {
+        // responses may arrive out of order, within a window the count only drops
+        if (known && resetEpochSeconds == this.resetEpochSeconds && remaining > this.remaining) {
+            return;
+        }
+        log.trace("update({}, {}, {})", limit, remaining, resetEpochSeconds);
+        this.known = true;
+        this.limit = limit;
+        this.remaining = remaining;
+        this.resetEpochSeconds = resetEpochSeconds;
+    }
+
+    /**
+     * Takes the state github-api knows.
+     *
+     * @param record the rate limit record
+     */
+    public void update(GHRateLimit.Record record) {
+        update(record.getLimit(), record.getRemaining(), record.getResetEpochSeconds());
+    }
+
+    /**
+     * Checks whether GitHub reported the rate limit yet.
+     *
+     * @return true if the budget is known
+     */
+    public synchronized boolean isKnown() {
+        return known;
+    }
+
+    /**
+     * Returns the number of requests left.
+     *
+     * @return the remaining requests, 0 if unknown
+     */
+    public synchronized int getRemaining() {
+        refresh();
+        return remaining;
+    }
+
+    /**
+     * Returns the number of requests left. If GitHub did not report the
+     * rate limit yet, it is queried once.
+     *
+     * @param github the client to query
+     * @return the remaining requests
+     * @throws IOException the rate limit could not be queried
+     */
+    public int getRemaining(GitHub github) throws IOException {
+        if (!isKnown()) {
+            update(github.getRateLimit().getCore());
+        }
+        return getRemaining();
+    }
+
+    /**
+     * Returns the number of requests per window.
+     *
+     * @return the limit
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns when the window ends.
+     *
+     * @return the date of the reset
+     */
+    public synchronized Date getResetDate() {
+        return new Date(resetEpochSeconds * 1000);
+    }
+
+    /**
+     * Takes one request from the budget, unless that would leave less than
+     * the reserve. An unknown budget always grants.
+     *
+     * @param reserve the number of requests to keep for more important things
+     * @return true if the request may be sent
+     */
+    public synchronized boolean tryAcquire(int reserve) {
+        if (!known) {
+            return true;
+        }
+        refresh();
+        if (remaining <= reserve) {
+            return false;
+        }
+        remaining--;
+        return true;
+    }
+
+    /**
+     * Delays the caller so the remaining requests last until the reset.
+     * Nothing is delayed while more than {@link #PACING_THRESHOLD} requests
+     * remain, and no request waits longer than {@link #MAX_PACE_MILLIS}.
+     *
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    public void pace() throws InterruptedException {
+        long delay;
+        int left;
+        synchronized (this) {
+            refresh();
+            if (!known || remaining >= PACING_THRESHOLD) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long interval = Math.max(0, resetEpochSeconds * 1000 - now) / Math.max(1, remaining);
+            // waiting callers must not pile up their delays
+            long grant = Math.min(Math.max(now, nextGrant), now + MAX_PACE_MILLIS);
+            nextGrant = grant + Math.min(interval, MAX_PACE_MILLIS);
+            delay = grant - now;
+            left = remaining;
+        }
+        if (delay > 0) {
+            log.debug("{} requests left, waiting {} ms", left, delay);
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Checks whether the budget is used up until the reset.
+     *
+     * @param reserve the number of requests kept for more important things
+     * @return true if no more than the reserve is left
+     */
+    public synchronized boolean isExhausted(int reserve) {
+        refresh();
+        return known && remaining <= reserve;
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis() / 1000;
+        if (known && now >= resetEpochSeconds) {
+            // a new window started; until GitHub reports it, assume it is a full one
+            long windows = (now - resetEpochSeconds) / WINDOW_SECONDS + 1;
+            resetEpochSeconds += windows * WINDOW_SECONDS;
+            remaining = limit;
+            nextGrant = 0;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Decides whether a failed operation on an archive is worth retrying, and how
+ * long to wait before the next attempt.
+ * A file held open by another process (typically a virus scanner) is retried
+ * after a short, randomized and exponentially growing delay. A corrupt archive
+ * is not retried at all, since waiting does not repair it.
+ *
+ * @author hiran
+ */
+public class RetryPolicy {
+    private static final Logger log = LogManager.getLogger(RetryPolicy.class);
+
+    /**
+     * The reasons an operation on an archive may fail.
+     */
+    public enum Failure {
+        /** Another process holds the file, retrying may help. */
+        LOCKED,
+        /** The archive is damaged and needs to be downloaded again. */
+        CORRUPT,
+        /** Anything else. */
+        OTHER
+    }
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * Creates a policy with 8 attempts and delays from 100 ms up to 2 s.
+     */
+    public RetryPolicy() {
+        this(8, 100, 2000);
+    }
+
+    /**
+     * Creates a policy.
+     *
+     * @param maxAttempts the number of attempts, including the first
+     * @param baseDelay the delay before the second attempt in milliseconds
+     * @param maxDelay the upper limit for the delay in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Checks whether another attempt should be made.
+     *
+     * @param attempt the number of the attempt that just failed, starting with 1
+     * @param failure the reason it failed
+     * @return true to retry
+     */
+    public boolean shouldRetry(int attempt, Failure failure) {
+        return failure != Failure.CORRUPT && attempt < maxAttempts;
+    }
+
+    /**
+     * Returns a random delay up to an exponentially growing limit.
+     *
+     * @param attempt the number of the attempt that just failed, starting with 1
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long limit = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        return limit / 2 + ThreadLocalRandom.current().nextLong(limit / 2 + 1);
+    }
+
+    /**
+     * Waits before the next attempt.
+     *
+     * @param attempt the number of the attempt that just failed, starting with 1
+     * @throws IOException the thread was interrupted
+     */
+    public void pause(int attempt) throws IOException {
+        long delay = getDelay(attempt);
+        log.debug("waiting {} ms before attempt {}", delay, attempt + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for retry", e);
+        }
+    }
+
+    /**
+     * Finds out why an operation on the archive failed.
+     *
+     * @param archive the archive being processed
+     * @param innerArchive the name of the archive inside that was processed, or null
+     * @param e the exception thrown
+     * @return the reason
+     */
+    public static Failure classify(File archive, String innerArchive, IOException e) {
+        if (!archive.isFile()) {
+            return Failure.OTHER;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ZipException || t instanceof EOFException) {
+                return isLocked(archive) ? Failure.LOCKED : Failure.CORRUPT;
+            }
+        }
+        if (e instanceof FileSystemException || e instanceof FileNotFoundException) {
+            // on Windows, files held by other processes cannot be opened
+            return Failure.LOCKED;
+        }
+        if (isLocked(archive)) {
+            return Failure.LOCKED;
+        }
+        return isIntact(archive, innerArchive) ? Failure.OTHER : Failure.CORRUPT;
+    }
+
+    /**
+     * Checks whether the file can currently be opened for reading.
+     *
+     * @param file the file to check
+     * @return true if another process prevents access
+     */
+    public static boolean isLocked(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return false;
+        } catch (IOException e) {
+            log.debug("{} is not accessible", file, e);
+            return file.exists();
+        }
+    }
+
+    /**
+     * Checks the archive's central directory. An archive inside is read
+     * completely, since it's entries are only checked while inflating.
+     *
+     * @param archive the archive to check
+     * @param innerArchive the name of an archive inside to check as well, or null
+     * @return true if the archives can be read
+     */
+    public static boolean isIntact(File archive, String innerArchive) {
+        try (ZipFile zip = new ZipFile(archive)) {
+            if (innerArchive == null) {
+                return true;
+            }
+            ZipEntry entry = zip.getEntry(innerArchive);
+            if (entry == null) {
+                log.debug("{} does not contain {}", archive, innerArchive);
+                return false;
+            }
+            try (ZipInputStream in = new ZipInputStream(zip.getInputStream(entry))) {
+                while (in.getNextEntry() != null) {
+                    // ZipInputStream checks the CRC at the end of each entry
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("{} is not a valid archive", archive, e);
+            return false;
+        }
+    }
+}
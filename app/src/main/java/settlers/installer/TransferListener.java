@@ -0,0 +1,27 @@
+/*
+ */
+package settlers.installer;
+
+/**
+ * Receives progress of downloads and disk operations.
+ * Methods are called on the thread doing the transfer.
+ *
+ * @author hiran
+ */
+public interface TransferListener {
+
+    /**
+     * Called while the transfer makes progress. Calls are rate limited, so
+     * not every chunk is reported.
+     *
+     * @param metrics the transfer's current state
+     */
+    void transferUpdated(TransferMetrics metrics);
+
+    /**
+     * Called once when the transfer ended, successfully or not.
+     *
+     * @param metrics the transfer's final state
+     */
+    void transferFinished(TransferMetrics metrics);
+}
@@ -0,0 +1,327 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Counts bytes, throughput and retries of a single transfer and reports
+ * them to the registered {@link TransferListener}s.
+ * Network transfers and disk operations are told apart by their kind, so the
+ * logs show whether a slow install was caused by the network or the disk.
+ *
+ * @author hiran
+ */
+public class TransferMetrics {
+    private static final Logger log = LogManager.getLogger(TransferMetrics.class);
+
+    /**
+     * What resource a transfer is bound by.
+     */
+    public enum Kind {
+        /** Data coming from the network. */
+        NETWORK,
+        /** Data read from or written to local disks. */
+        DISK
+    }
+
+    /** Minimum time between two listener updates. */
+    private static final long UPDATE_INTERVAL = 100_000_000L;
+    /** Time window for the instantaneous throughput. */
+    private static final long SAMPLE_INTERVAL = 500_000_000L;
+
+    private static final List<TransferListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Kind kind;
+    private final boolean background;
+    private final long started = System.nanoTime();
+
+    private volatile long total = -1;
+    private volatile long done;
+    private volatile long transferred;
+    private final AtomicInteger retries = new AtomicInteger();
+    private volatile double currentRate;
+    private volatile long finished;
+
+    private long lastUpdate;
+    private long sampleTime = started;
+    private long sampleDone;
+
+    /**
+     * Creates metrics for a foreground transfer.
+     *
+     * @param name the name shown to the user, e.g. the file or url
+     * @param kind what the transfer is bound by
+     */
+    public TransferMetrics(String name, Kind kind) {
+        this(name, kind, false);
+    }
+
+    /**
+     * Creates metrics for a transfer.
+     *
+     * @param name the name shown to the user, e.g. the file or url
+     * @param kind what the transfer is bound by
+     * @param background true if the user is not waiting for this transfer
+     */
+    public TransferMetrics(String name, Kind kind, boolean background) {
+        this.name = name;
+        this.kind = kind;
+        this.background = background;
+    }
+
+    /**
+     * Registers a listener for all transfers.
+     *
+     * @param listener the listener
+     */
+    public static void addListener(TransferListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener
+     */
+    public static void removeListener(TransferListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the name of the transfer.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the kind of the transfer.
+     *
+     * @return the kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns whether the user is waiting for this transfer.
+     *
+     * @return true if the transfer runs in the background
+     */
+    public boolean isBackground() {
+        return background;
+    }
+
+    /**
+     * Returns the expected number of bytes.
+     *
+     * @return the total, or -1 if unknown
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets the expected number of bytes.
+     *
+     * @param total the total, or -1 if unknown
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the number of bytes transferred so far, including bytes
+     * that were present already when the transfer resumed.
+     *
+     * @return the bytes done
+     */
+    public long getDone() {
+        return done;
+    }
+
+    /**
+     * Sets the number of bytes present before transferring, e.g. when a
+     * download resumes. Only bytes actually transferred count towards the
+     * throughput.
+     *
+     * @param offset the bytes present already
+     */
+    public synchronized void resume(long offset) {
+        sampleDone += offset - done;
+        done = offset;
+    }
+
+    /**
+     * Returns how often the transfer was retried.
+     *
+     * @return the number of retries
+     */
+    public int getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Records another retry.
+     */
+    public void retry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Returns the elapsed time.
+     *
+     * @return the time since the start in nanoseconds
+     */
+    public long getElapsed() {
+        return (finished != 0 ? finished : System.nanoTime()) - started;
+    }
+
+    /**
+     * Returns the average throughput since the start.
+     *
+     * @return bytes per second
+     */
+    public double getAverageRate() {
+        long elapsed = getElapsed();
+        return elapsed <= 0 ? 0 : transferred * 1e9 / elapsed;
+    }
+
+    /**
+     * Returns the throughput over the last half second or so.
+     *
+     * @return bytes per second
+     */
+    public double getCurrentRate() {
+        return currentRate;
+    }
+
+    /**
+     * Estimates the remaining time based on the average throughput.
+     *
+     * @return the remaining seconds, or -1 if unknown
+     */
+    public long getEta() {
+        double rate = getAverageRate();
+        if (total < 0 || rate <= 0) {
+            return -1;
+        }
+        return (long) ((total - done) / rate);
+    }
+
+    /**
+     * Records transferred bytes and notifies the listeners from time to time.
+     *
+     * @param bytes the number of bytes
+     */
+    public void add(long bytes) {
+        boolean notify = false;
+        synchronized (this) {
+            done += bytes;
+            transferred += bytes;
+            long now = System.nanoTime();
+            if (now - sampleTime >= SAMPLE_INTERVAL) {
+                currentRate = (done - sampleDone) * 1e9 / (now - sampleTime);
+                sampleTime = now;
+                sampleDone = done;
+            }
+            if (now - lastUpdate >= UPDATE_INTERVAL) {
+                lastUpdate = now;
+                notify = true;
+            }
+        }
+        if (notify) {
+            for (TransferListener l : listeners) {
+                l.transferUpdated(this);
+            }
+        }
+    }
+
+    /**
+     * Marks the transfer as ended, logs a summary and notifies the listeners.
+     */
+    public void finish() {
+        finished = System.nanoTime();
+        log.info("{}", this);
+        for (TransferListener l : listeners) {
+            l.transferFinished(this);
+        }
+    }
+
+    /**
+     * Wraps the stream so every byte read is counted.
+     *
+     * @param in the stream to wrap
+     * @return the counting stream
+     */
+    public InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c >= 0) {
+                    add(1);
+                }
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Formats a byte count for humans.
+     *
+     * @param bytes the byte count
+     * @return the formatted string
+     */
+    public static String formatBytes(double bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / 1024 / 1024);
+        }
+        if (bytes >= 1024) {
+            return String.format("%.1f KB", bytes / 1024);
+        }
+        return String.format("%.0f B", bytes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(kind).append(' ').append(name).append(": ").append(formatBytes(done));
+        if (total >= 0) {
+            sb.append(" of ").append(formatBytes(total));
+        }
+        sb.append(String.format(" in %.1f s, avg %s/s", getElapsed() / 1e9, formatBytes(getAverageRate())));
+        if (finished == 0) {
+            sb.append(", now ").append(formatBytes(currentRate)).append("/s");
+            long eta = getEta();
+            if (eta >= 0) {
+                sb.append(", ETA ").append(eta).append(" s");
+            }
+        }
+        int r = retries.get();
+        if (r > 0) {
+            sb.append(", ").append(r).append(" retries");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Coordinates the bandwidth used by all downloads.
+ * Transfers pass their data through {@link #throttle(InputStream, Priority)}.
+ * When a rate limit is set, bytes are handed out from a token bucket. Waiting
+ * transfers of a higher priority are served first, transfers of the same
+ * priority take turns chunk by chunk so they share the bandwidth fairly.
+ * Without a rate limit the connection is not shaped, but a transfer still
+ * pauses while one of a higher priority is receiving data, so the game is
+ * not slowed down by background music.
+ *
+ * @author hiran
+ */
+public class TransferScheduler {
+    private static final Logger log = LogManager.getLogger(TransferScheduler.class);
+
+    /**
+     * Priority classes for transfers, the most important first.
+     */
+    public enum Priority {
+        /** The game binary the user is waiting for. */
+        GAME,
+        /** Other data like assets. */
+        DATA,
+        /** Background music. */
+        MUSIC
+    }
+
+    private static final TransferScheduler instance = new TransferScheduler();
+
+    /** Tokens are never accumulated beyond this many bytes. */
+    private static final long MIN_BURST = 64 * 1024;
+    /** A transfer that received nothing for this long no longer holds back lower priorities. */
+    private static final long IDLE_MILLIS = 250;
+
+    private long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    private final List<Deque<Object>> queues = new ArrayList<>();
+    /** Time each priority last received data, in System.nanoTime(). */
+    private final long[] lastActive = new long[Priority.values().length];
+
+    /**
+     * Creates a scheduler without rate limit.
+     */
+    public TransferScheduler() {
+        for (Priority p : Priority.values()) {
+            queues.add(new ArrayDeque<>());
+        }
+        Arrays.fill(lastActive, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+    }
+
+    /**
+     * Returns the scheduler shared by all downloads.
+     *
+     * @return the scheduler
+     */
+    public static TransferScheduler getDefault() {
+        return instance;
+    }
+
+    /**
+     * Returns the global rate limit.
+     *
+     * @return the limit in bytes per second, 0 if unlimited
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the global rate limit.
+     *
+     * @param rate the limit in bytes per second, 0 or less for unlimited
+     */
+    public synchronized void setRate(long rate) {
+        log.debug("setRate({})", rate);
+        this.rate = Math.max(0, rate);
+        this.tokens = 0;
+        this.lastRefill = System.nanoTime();
+        notifyAll();
+    }
+
+    /**
+     * Waits until the given amount of bytes may be transferred.
+     *
+     * @param priority the priority of the transfer
+     * @param bytes the number of bytes
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    public synchronized void acquire(Priority priority, int bytes) throws InterruptedException {
+        if (rate <= 0) {
+            while (rate <= 0 && higherActive(priority)) {
+                wait(IDLE_MILLIS);
+            }
+            lastActive[priority.ordinal()] = System.nanoTime();
+            if (rate <= 0) {
+                return;
+            }
+        }
+        Deque<Object> queue = queues.get(priority.ordinal());
+        Object turn = new Object();
+        queue.addLast(turn);
+        try {
+            while (true) {
+                if (rate <= 0) {
+                    return;
+                }
+                refill();
+                if (queue.peekFirst() == turn && !higherWaiting(priority) && tokens > 0) {
+                    // may go into debt, which is paid back before the next grant
+                    tokens -= bytes;
+                    return;
+                }
+                long delay = tokens > 0 ? 10 : (long) Math.ceil(-tokens * 1000 / rate) + 1;
+                wait(delay);
+            }
+        } finally {
+            queue.remove(turn);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wraps the stream so reading from it is subject to this scheduler.
+     *
+     * @param in the stream to wrap
+     * @param priority the priority of the transfer
+     * @return the throttled stream
+     */
+    public InputStream throttle(InputStream in, Priority priority) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c >= 0) {
+                    account(1);
+                }
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    account(n);
+                }
+                return n;
+            }
+
+            private void account(int n) throws IOException {
+                try {
+                    acquire(priority, n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        };
+    }
+
+    private boolean higherActive(Priority priority) {
+        long now = System.nanoTime();
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (now - lastActive[i] < TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean higherWaiting(Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (!queues.get(i).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(Math.max(rate, MIN_BURST), tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+    }
+}
@@ -8,17 +8,27 @@ import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
@@ -27,23 +37,31 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.swing.filechooser.FileSystemView;
 import net.sf.fikin.ant.EmbeddedAntProject;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.tools.ant.Project;
 import org.kohsuke.github.GHArtifact;
 import org.kohsuke.github.GHAsset;
+import org.kohsuke.github.GHException;
 import org.kohsuke.github.GHObject;
 import org.kohsuke.github.GHRelease;
 import org.kohsuke.github.GHRepository;
@@ -52,6 +70,8 @@ import org.kohsuke.github.GHWorkflowRun;
 import org.kohsuke.github.GitHub;
 import org.kohsuke.github.PagedIterator;
 import settlers.installer.model.GameVersion;
+import settlers.installer.model.InstallManifest;
+import settlers.installer.model.InstalledFile;
 
 /**
  * Class with lots of utility functions that are taken out of App.
@@ -81,6 +101,15 @@ public class Util {
     
     private static final int GITHUB_MIN_LIMIT4BROWSING = 10;
     
+    /** Number of parallel connections for downloading large release assets. */
+    private static final int DOWNLOAD_SEGMENTS = 4;
+    /** Assets smaller than this are downloaded over a single connection. */
+    private static final long SEGMENTED_DOWNLOAD_MIN_SIZE = 8L * 1024 * 1024;
+    /** Bytes buffered between download and extraction when streaming. */
+    private static final int PIPE_BUFFER_SIZE = 4 * 1024 * 1024;
+    /** The game archive inside a workflow run's Release artifact. */
+    private static final String ARTIFACT_INNER_ARCHIVE = "JSettlers.zip";
+    
     /** 
      * Creates a Genson parser that treats timestamps as java.util.Date.
      *
@@ -224,7 +253,9 @@ public class Util {
     }
 
     /** Returns the releases locally installed.
-     * The list is sorted by publishing date.
+     * The list is sorted by publishing date. Only the metadata is read;
+     * installations are verified when they are started, see
+     * {@link #execGameJar(GameVersion, String)}.
      * 
      * @return the list of releases
      * @throws FileNotFoundException something went wrong
@@ -237,9 +268,8 @@ public class Util {
         if (gamesFolder.isDirectory()) {
             for(File game: gamesFolder.listFiles()) {
                 File metadata = new File(game, "metadata.json");
-                try {
-                    GameVersion gv = genson.deserialize(new FileInputStream(metadata), GameVersion.class);
-                    result.add(gv);
+                try (InputStream in = new FileInputStream(metadata)) {
+                    result.add(genson.deserialize(in, GameVersion.class));
                 } catch (Exception e) {
                     log.info("Could not parse {}", metadata.getAbsolutePath());
                 }
@@ -250,47 +280,98 @@ public class Util {
     }
 
     /**
-     * Extracts a ZIP archive.
+     * Verifies an installation against it's manifest and repairs damaged
+     * files from the cached archive. Installations without a manifest are
+     * considered intact.
+     * 
+     * @param installFolder the installation
+     * @param full true to compare checksums, false to compare sizes only
+     * @return false if the installation is damaged and could not be repaired
+     */
+    public static boolean verifyInstall(File installFolder, boolean full) {
+        log.debug("verifyInstall({}, {})", installFolder, full);
+        InstallVerifier verifier = new InstallVerifier();
+        try {
+            List<InstalledFile> damaged = verifier.verify(installFolder, full);
+            if (damaged == null || damaged.isEmpty()) {
+                return true;
+            }
+            log.warn("{} files in {} are damaged", damaged.size(), installFolder);
+            return verifier.repair(installFolder, damaged);
+        } catch (IOException e) {
+            log.warn("Could not verify {}", installFolder, e);
+            return false;
+        }
+    }
+
+    /**
+     * Extracts a ZIP archive. Entries are extracted in parallel.
      * 
      * @param archive The archive to unzip
      * @param target the directory to store it's content
      * @throws IOException something went wrong
      */
     public static void unzip(File archive, File target) throws IOException {
+        unzip(archive, target, null);
+    }
+    
+    /**
+     * Extracts a ZIP archive. Files already present in other installations
+     * are hard linked instead of being extracted again. The SHA-256 of every
+     * extracted file is computed along the way.
+     * 
+     * @param archive The archive to unzip
+     * @param target the directory to store it's content
+     * @param reuse the installed files to link to, or null
+     * @return the SHA-256 in hex by entry name, for all files not linked
+     * @throws IOException something went wrong
+     */
+    public static Map<String, String> unzip(File archive, File target, InstalledFileIndex reuse) throws IOException {
         log.debug("unzip({}, {})", archive, target);
-        
-        if (!target.exists()) {
-            if (!target.mkdirs()) {
-                throw new IOException(String.format("Could not create folder %s", target.getAbsolutePath()));
-            }
+        TransferMetrics metrics = new TransferMetrics(archive.getName(), TransferMetrics.Kind.DISK);
+        metrics.setTotal(archive.length());
+        try {
+            ZipExtractor extractor = new ZipExtractor();
+            extractor.setReuse(reuse);
+            extractor.setDigest(true);
+            extractor.extract(archive, target, metrics);
+            log.debug("unzip done");
+            return extractor.getDigests();
+        } finally {
+            metrics.finish();
         }
-        
-        try (ZipInputStream zipIn = new ZipInputStream(new FileInputStream(archive))) {
-            ZipEntry entry = zipIn.getNextEntry();
-            while (entry != null) {
-                File destFile = new File(target, entry.getName());
-                if (!destFile.toPath().normalize().startsWith(target.toPath())) {
-                    log.warn("While unzipping we found {} would expand outside {}", destFile, target);
-                    throw new IOException("Bad ZIP entry "+entry.getName());
-                }
-                if (entry.isDirectory()) {
-                    destFile.mkdirs();
-                    Files.setLastModifiedTime(destFile.toPath(), entry.getLastModifiedTime());
-                } else {
-                    Files.copy(zipIn, destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    Files.setLastModifiedTime(destFile.toPath(), entry.getLastModifiedTime());
-                }
-                
-                zipIn.closeEntry();
-                entry = zipIn.getNextEntry();
-            }
+    }
+    
+    /**
+     * Extracts an archive contained in another one without writing the inner
+     * archive to disk. Files already present in other installations are hard
+     * linked instead of being extracted again.
+     * 
+     * @param archive the outer archive
+     * @param innerArchive the name of the inner archive
+     * @param target the directory to store the inner archive's content
+     * @param reuse the installed files to link to, or null
+     * @return the files extracted, with their SHA-256
+     * @throws IOException something went wrong
+     */
+    public static InstallManifest unzipNested(File archive, String innerArchive, File target, InstalledFileIndex reuse) throws IOException {
+        log.debug("unzipNested({}, {}, {})", archive, innerArchive, target);
+        TransferMetrics metrics = new TransferMetrics(innerArchive, TransferMetrics.Kind.DISK);
+        try {
+            ZipExtractor extractor = new ZipExtractor();
+            extractor.setReuse(reuse);
+            extractor.setDigest(true);
+            return extractor.extractNested(archive, innerArchive, target, metrics);
+        } finally {
+            metrics.finish();
         }
-        
-        log.debug("unzip done");
     }
     
     /**
      * Extracts a self-extracting ZIP archive (it is actually an EXE).
+     * The embedded archive is located through it's end of central directory
+     * record and extracted with random access. Only if that record is
+     * missing, the file is scanned for the first local header.
      * 
      * @param zipfile The archive to unzip
      * @param target the directory to store it's content
@@ -298,7 +379,31 @@ public class Util {
      * @throws FileNotFoundException something went wrong
      */
     public static void unzipSelfExtractingZip(File zipfile, File target) throws FileNotFoundException, IOException {
-        try (ZipInputStream zis = new ZipInputStream(new WinZipInputStream(new FileInputStream(zipfile)))) {
+        TransferMetrics metrics = new TransferMetrics(zipfile.getName(), TransferMetrics.Kind.DISK);
+        metrics.setTotal(zipfile.length());
+
+        // the end of central directory tells where the archive starts inside the executable
+        ZipCentralDirectory directory;
+        try (FileChannel channel = FileChannel.open(zipfile.toPath(), StandardOpenOption.READ)) {
+            directory = ZipCentralDirectory.read(channel);
+            log.debug("archive starts at {} in {}", directory.getArchiveOffset(), zipfile);
+        } catch (ZipException | EOFException e) {
+            // a truncated file ends before the offsets it names
+            log.info("No central directory in {}, scanning for the archive", zipfile, e);
+            directory = null;
+        }
+        if (directory != null) {
+            try {
+                ZipExtractor extractor = new ZipExtractor();
+                extractor.setVerify(verifyChecksums);
+                extractor.extract(zipfile, directory, target, metrics);
+            } finally {
+                metrics.finish();
+            }
+            return;
+        }
+
+        try (ZipInputStream zis = new ZipInputStream(new WinZipInputStream(new BufferedInputStream(metrics.count(new FileInputStream(zipfile)), ExtractBuffers.BUFFER_SIZE)))) {
             ZipEntry entry = null;
 
             while((entry = zis.getNextEntry()) != null){
@@ -312,41 +417,267 @@ public class Util {
                     Files.setLastModifiedTime(destFile.toPath(), entry.getLastModifiedTime());
                 } else {
                     destFile.getParentFile().mkdirs();
-                    Files.copy(zis, destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    ExtractBuffers.copy(zis, destFile.toPath());
                     Files.setLastModifiedTime(destFile.toPath(), entry.getLastModifiedTime());
                 }
                 zis.closeEntry();
             }
+        } finally {
+            metrics.finish();
         }
     }
     
-    private static void installGeneric(URL url, File target) throws IOException {
-        log.debug("installGeneric({}, {})", url, target);
+    /**
+     * Downloads an archive and extracts it while the bytes arrive. A separate
+     * thread reads the network stream into a bounded pipe, the calling
+     * thread extracts the entries from the other end. So network and disk
+     * work overlap and the archive does not need to be written first.
+     * The stream is hashed on the way, so the archive can be checked against
+     * the digest GitHub reports once it is complete.
+     * 
+     * @param downloader the downloader to open the stream with
+     * @param url the archive to download
+     * @param target the directory to store it's content
+     * @param tee true to also keep the archive in the downloader's .part file
+     * @param sha256 the digest GitHub reports for the archive, or null
+     * @return the files extracted, with their SHA-256
+     * @throws IOException something went wrong, or the archive does not match the digest
+     */
+    private static InstallManifest downloadAndUnzip(Downloader downloader, URL url, File target, boolean tee, String sha256) throws IOException {
+        log.debug("downloadAndUnzip({}, {}, {})", url, target, tee);
+        PipedInputStream pipeIn = new PipedInputStream(PIPE_BUFFER_SIZE);
+        PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        AtomicReference<IOException> downloadFailure = new AtomicReference<>();
+        MessageDigest md = ZipExtractor.newDigest();
+        
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (InputStream in = new DigestInputStream(downloader.openStream(url, tee), md); OutputStream out = pipeOut) {
+                    in.transferTo(out);
+                } catch (IOException e) {
+                    downloadFailure.set(e);
+                }
+            }
+        }, "download " + target.getName());
+        producer.start();
+        
+        InstallManifest manifest;
+        try (InputStream in = pipeIn) {
+            ZipExtractor extractor = new ZipExtractor();
+            extractor.setDigest(true);
+            manifest = extractor.extract(in, target, null);
+            // consume the central directory as well so the tee gets complete
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            if (downloadFailure.get() != null) {
+                e.addSuppressed(downloadFailure.get());
+            }
+            throw e;
+        } finally {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        // a broken download may look like a regular end of the archive
+        if (downloadFailure.get() != null) {
+            throw new IOException(String.format("Could not download %s", url), downloadFailure.get());
+        }
+        String digest = Hex.encodeHexString(md.digest());
+        if (sha256 != null && !sha256.equalsIgnoreCase(digest)) {
+            // resuming would only complete the same wrong bytes
+            downloader.discard(url);
+            throw new IOException(String.format("Download of %s has SHA-256 %s, GitHub reports %s", url, digest, sha256));
+        }
+        log.debug("downloadAndUnzip done");
+        return manifest;
+    }
+    
+    /**
+     * Downloads an archive and extracts it into the target folder.
+     * Archives are kept in the artifact cache, so installing the same
+     * id again does not need to download anything. If other versions are
+     * installed, files they share with this one are linked, not extracted.
+     * 
+     * @param id the GitHub id of the asset
+     * @param url the archive to download
+     * @param size the archive size in bytes if known, otherwise -1
+     * @param sha256 the digest GitHub reports for the archive, or null
+     * @param target the directory to store it's content
+     * @throws IOException something went wrong
+     */
+    private static void installGeneric(long id, URL url, long size, String sha256, File target) throws IOException {
+        log.debug("installGeneric({}, {}, {}, {})", id, url, size, target);
         File tempFolder = getManagedTempFolder();
         tempFolder.mkdirs();
 
-        File f = File.createTempFile("download", ".zip", tempFolder);
-        download(url, f);
-
-        int retries = 6;
-        boolean done = false;
-        while (retries>0 && !done) {
+        ArtifactCache cache = new ArtifactCache();
+        InstalledFileIndex reuse = InstalledFileIndex.build(getGamesFolder(), target);
+        File f = cache.get(ArtifactCache.Kind.ASSET, id);
+        // streaming cannot skip unchanged files, so it is only used for a first install.
+        // It takes one connection, the segmented download below is the fallback.
+        if (f == null && reuse.isEmpty()) {
+            Downloader downloader = new Downloader();
+            downloader.setPriority(TransferScheduler.Priority.GAME);
+            // the archive is only written to disk if the cache will keep it
+            boolean keep = cache.fits(size);
             try {
-                unzip(f, target);
-                done = true;
+                InstallManifest streamed = downloadAndUnzip(downloader, url, target, keep, sha256);
+                if (keep) {
+                    File download = File.createTempFile("download", ".zip", tempFolder);
+                    downloader.commit(url, download);
+                    File cached = cache.put(ArtifactCache.Kind.ASSET, id, download, sha256);
+                    streamed = InstallManifest.fromArchive(cached);
+                }
+                storeInstall(id, null, streamed, target, null);
+                return;
             } catch (IOException e) {
-                log.info("Could not unzip release. Maybe a virus scanner? Waiting for retry...", e);
+                log.info("Streaming install of {} failed, falling back to download first", url, e);
+                // whatever was extracted is not verified
+                FileUtils.cleanDirectory(target);
+            }
+        }
+        if (f == null) {
+            Downloader downloader = new Downloader();
+            downloader.setPriority(TransferScheduler.Priority.GAME);
+            File download = File.createTempFile("download", ".zip", tempFolder);
+            if (downloader.getPartFile(url).length() == 0 && size >= SEGMENTED_DOWNLOAD_MIN_SIZE) {
+                downloader.downloadSegmented(url, download, size, DOWNLOAD_SEGMENTS);
+            } else {
+                // resumes from what the streaming attempt left in the .part file
+                downloader.download(url, download);
+            }
+            f = cache.put(ArtifactCache.Kind.ASSET, id, download, sha256);
+        }
+
+        InstallManifest manifest = unzipWithRetry(f, null, target, reuse);
+        if (manifest == null) {
+            log.info("{} is corrupt, downloading it again", f);
+            cache.remove(ArtifactCache.Kind.ASSET, id);
+            Downloader downloader = new Downloader();
+            downloader.setPriority(TransferScheduler.Priority.GAME);
+            downloader.discard(url);
+            File download = File.createTempFile("download", ".zip", tempFolder);
+            downloader.download(url, download);
+            f = cache.put(ArtifactCache.Kind.ASSET, id, download, sha256);
+            manifest = unzipWithRetry(f, null, target, reuse);
+            if (manifest == null) {
+                cache.remove(ArtifactCache.Kind.ASSET, id);
+                throw new IOException(String.format("Downloaded archive %s is corrupt", url));
+            }
+        }
+        storeInstall(id, null, manifest, target, reuse);
+    }
+    
+    /**
+     * Records the files of a fresh installation in it's manifest and moves
+     * them into the blob store.
+     * 
+     * @param archiveId the id of the cached archive, to repair the installation from
+     * @param innerArchive the name of the extracted archive inside the cached one, or null
+     * @param manifest the files that were extracted
+     * @param target the installation folder
+     * @param reuse the index the installation was linked from, or null
+     */
+    private static void storeInstall(long archiveId, String innerArchive, InstallManifest manifest, File target, InstalledFileIndex reuse) {
+        manifest.setArchiveId(archiveId);
+        manifest.setInnerArchive(innerArchive);
+        new BlobStore().add(target, manifest, reuse);
+        manifest.save(target);
+    }
+    
+    /**
+     * Creates an empty folder to build an installation in. It is on the same
+     * file system as the games folder, so it can be renamed into place.
+     * 
+     * @param target the installation folder to be created eventually
+     * @return the new folder
+     * @throws IOException the folder could not be created
+     */
+    private static File createStagingFolder(File target) throws IOException {
+        File stagingFolder = getStagingFolder();
+        stagingFolder.mkdirs();
+        return Files.createTempDirectory(stagingFolder.toPath(), target.getName() + "-").toFile();
+    }
+    
+    /**
+     * Moves a completely built installation into place. An installation
+     * that exists already is moved aside first and deleted afterwards. If
+     * the new one cannot be moved into place, the old one is put back.
+     * 
+     * @param staging the folder the installation was built in
+     * @param target the installation folder
+     * @throws IOException the installation could not be moved
+     */
+    private static void commitInstall(File staging, File target) throws IOException {
+        log.debug("commitInstall({}, {})", staging, target);
+        target.getParentFile().mkdirs();
+        File old = null;
+        if (target.exists()) {
+            old = new File(staging.getParentFile(), staging.getName() + ".old");
+            move(target, old);
+        }
+        try {
+            move(staging, target);
+        } catch (IOException e) {
+            if (old != null) {
+                log.warn("Could not move {} into place, restoring the previous installation", staging, e);
                 try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException ex) {
-                    log.debug("Interrupted sleep");
+                    move(old, target);
+                } catch (IOException e2) {
+                    log.error("Could not restore {} from {}", target, old, e2);
+                    e.addSuppressed(e2);
                 }
             }
-
-            retries--;
+            throw e;
         }
-        if (!done) {
-            throw new IOException(String.format("Could not unzip %s to %s", f, target));
+        if (old != null) {
+            FileDeleter.deleteLater(old.toPath());
+        }
+    }
+    
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.info("Cannot move {} atomically, moving it anyway", source, e);
+            Files.move(source.toPath(), target.toPath());
+        }
+    }
+    
+    /**
+     * Extracts an archive, retrying for a few seconds while another process
+     * (e.g. a virus scanner) holds it.
+     * 
+     * @param archive the archive to unzip
+     * @param innerArchive the name of an archive inside to unzip instead, or null
+     * @param target the directory to store it's content
+     * @param reuse the installed files to link to, or null
+     * @return the files extracted, or null if the archive is corrupt
+     * @throws IOException the archive could not be extracted within the allowed attempts
+     */
+    private static InstallManifest unzipWithRetry(File archive, String innerArchive, File target, InstalledFileIndex reuse) throws IOException {
+        RetryPolicy policy = new RetryPolicy();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (innerArchive != null) {
+                    return unzipNested(archive, innerArchive, target, reuse);
+                }
+                return InstallManifest.fromArchive(archive, unzip(archive, target, reuse));
+            } catch (IOException e) {
+                RetryPolicy.Failure failure = RetryPolicy.classify(archive, innerArchive, e);
+                log.info("Could not unzip {} ({}), attempt {}", archive, failure, attempt, e);
+                if (failure == RetryPolicy.Failure.CORRUPT) {
+                    return null;
+                }
+                if (!policy.shouldRetry(attempt, failure)) {
+                    throw new IOException(String.format("Could not unzip %s to %s", archive, target), e);
+                }
+                policy.pause(attempt);
+            }
         }
     }
     
@@ -364,24 +695,33 @@ public class Util {
             if ("JSettlers.zip".equals(a.getName())) {
                 log.debug("check asset {}", a);
                 File target = new File(getGamesFolder(), String.valueOf(release.getId()));
-                installGeneric(new URL(a.getBrowserDownloadUrl()), target);
-                
-                log.debug("writing metadata...");
-                File metadata = new File(target, "metadata.json");
-                GameVersion gv = new GameVersion();
-                gv.setDownloadUrl(a.getBrowserDownloadUrl());
-                gv.setInstallPath(target.getAbsolutePath());
-                gv.setInstalledAt(new Date());
-                gv.setName(release.getName());
-                gv.setPublishedAt(release.getPublished_at());
-                gv.setBasedOn(release.getClass().getName());
-                try (FileOutputStream fos = new FileOutputStream(metadata)) {
-                    new Genson().serialize(gv, fos);
-                }
+                File staging = createStagingFolder(target);
+                try {
+                    installGeneric(a.getId(), new URL(a.getBrowserDownloadUrl()), a.getSize(), GitHubCatalog.getDigest(a), staging);
+
+                    log.debug("writing metadata...");
+                    File metadata = new File(staging, "metadata.json");
+                    GameVersion gv = new GameVersion();
+                    gv.setDownloadUrl(a.getBrowserDownloadUrl());
+                    gv.setInstallPath(target.getAbsolutePath());
+                    gv.setInstalledAt(new Date());
+                    gv.setName(release.getName());
+                    gv.setPublishedAt(release.getPublished_at());
+                    gv.setBasedOn(release.getClass().getName());
+                    try (FileOutputStream fos = new FileOutputStream(metadata)) {
+                        new Genson().serialize(gv, fos);
+                    }
+
+                    FileTime ft = FileTime.from(release.getPublished_at().toInstant());
+                    log.debug("setting file time to {}", ft);
+                    Files.setLastModifiedTime(staging.toPath(), ft);
 
-                FileTime ft = FileTime.from(release.getPublished_at().toInstant());
-                log.debug("setting file time to {}", ft);
-                Files.setLastModifiedTime(target.toPath(), ft);
+                    commitInstall(staging, target);
+                } finally {
+                    if (staging.exists()) {
+                        deleteDir(staging);
+                    }
+                }
 
                 log.debug("release installed");
                 return;
@@ -389,6 +729,32 @@ public class Util {
         }
     }
     
+    /**
+     * Downloads a workflow run artifact into the cache.
+     * 
+     * @param artifact the artifact to download
+     * @param cache the cache to store it
+     * @return the cached file
+     * @throws IOException something went wrong
+     */
+    private static File downloadArtifact(GHArtifact artifact, ArtifactCache cache) throws IOException {
+        File download = File.createTempFile("artifact", ".zip", getManagedTempFolder());
+        log.debug("downloading artifact to {}", download);
+
+        TransferMetrics metrics = new TransferMetrics(artifact.getName(), TransferMetrics.Kind.NETWORK);
+        metrics.setTotal(artifact.getSizeInBytes());
+        try {
+            artifact.download(is -> {
+                InputStream in = metrics.count(TransferScheduler.getDefault().throttle(is, TransferScheduler.Priority.GAME));
+                Files.copy(in, download.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return null;
+            });
+        } finally {
+            metrics.finish();
+        }
+        return cache.put(ArtifactCache.Kind.ARTIFACT, artifact.getId(), download, GitHubCatalog.getDigest(artifact));
+    }
+    
     /**
      * Installs the game based on the given workflow run.
      * 
@@ -402,37 +768,56 @@ public class Util {
         for (GHArtifact artifact: artifacts) {
             log.debug("found {}", artifact);
             if ("Release".equals(artifact.getName())) {
-                File tempfile = File.createTempFile("artifact", ".zip", getManagedTempFolder());
-                File tempfilex = Files.createTempDirectory(getManagedTempFolder().toPath(), "artifactx").toFile();
+                getManagedTempFolder().mkdirs();
                 File target = new File(Util.getGamesFolder(), String.valueOf(run.getId()));
-                log.debug("downloading artifact to {}", tempfile);
 
-                //installGeneric(artifact.getArchiveDownloadUrl(), target);
-                artifact.download(is -> {
-                    Files.copy(is, tempfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    return null;
-                });
-
-                log.debug("extracting to {}", tempfilex);
-                unzip(tempfile, tempfilex);
-                unzip(new File(tempfilex, "JSettlers.zip"), target);
-                
-                log.debug("writing metadata...");
-                File metadata = new File(target, "metadata.json");
-                GameVersion gv = new GameVersion();
-                gv.setDownloadUrl(String.valueOf(artifact.getArchiveDownloadUrl()));
-                gv.setInstallPath(target.getAbsolutePath());
-                gv.setInstalledAt(new Date());
-                gv.setName(run.getName()+" "+run.getHeadBranch()+" "+run.getRunNumber());
-                gv.setPublishedAt(artifact.getUpdatedAt());
-                gv.setBasedOn(run.getClass().getName());
-                try (FileOutputStream fos = new FileOutputStream(metadata)) {
-                    new Genson().serialize(gv, fos);
+                ArtifactCache cache = new ArtifactCache();
+                File tempfile = cache.get(ArtifactCache.Kind.ARTIFACT, artifact.getId());
+                if (tempfile == null) {
+                    tempfile = downloadArtifact(artifact, cache);
                 }
 
-                FileTime ft = FileTime.from(artifact.getUpdatedAt().toInstant());
-                log.debug("setting file time to {}", ft);
-                Files.setLastModifiedTime(target.toPath(), ft);
+                File staging = createStagingFolder(target);
+                try {
+                    // JSettlers.zip is read straight out of the artifact
+                    log.debug("extracting to {}", staging);
+                    InstalledFileIndex reuse = InstalledFileIndex.build(getGamesFolder(), staging);
+                    InstallManifest manifest = unzipWithRetry(tempfile, ARTIFACT_INNER_ARCHIVE, staging, reuse);
+                    if (manifest == null) {
+                        log.info("{} is corrupt, downloading it again", tempfile);
+                        cache.remove(ArtifactCache.Kind.ARTIFACT, artifact.getId());
+                        tempfile = downloadArtifact(artifact, cache);
+                        manifest = unzipWithRetry(tempfile, ARTIFACT_INNER_ARCHIVE, staging, reuse);
+                    }
+                    if (manifest == null) {
+                        cache.remove(ArtifactCache.Kind.ARTIFACT, artifact.getId());
+                        throw new IOException(String.format("Artifact %s is corrupt", artifact.getName()));
+                    }
+                    storeInstall(artifact.getId(), ARTIFACT_INNER_ARCHIVE, manifest, staging, reuse);
+
+                    log.debug("writing metadata...");
+                    File metadata = new File(staging, "metadata.json");
+                    GameVersion gv = new GameVersion();
+                    gv.setDownloadUrl(String.valueOf(artifact.getArchiveDownloadUrl()));
+                    gv.setInstallPath(target.getAbsolutePath());
+                    gv.setInstalledAt(new Date());
+                    gv.setName(run.getName()+" "+run.getHeadBranch()+" "+run.getRunNumber());
+                    gv.setPublishedAt(artifact.getUpdatedAt());
+                    gv.setBasedOn(run.getClass().getName());
+                    try (FileOutputStream fos = new FileOutputStream(metadata)) {
+                        new Genson().serialize(gv, fos);
+                    }
+
+                    FileTime ft = FileTime.from(artifact.getUpdatedAt().toInstant());
+                    log.debug("setting file time to {}", ft);
+                    Files.setLastModifiedTime(staging.toPath(), ft);
+
+                    commitInstall(staging, target);
+                } finally {
+                    if (staging.exists()) {
+                        deleteDir(staging);
+                    }
+                }
 
                 log.debug("release installed");
                 return;
@@ -450,12 +835,19 @@ public class Util {
     public static void installGame(GHObject object) throws IOException {
         log.debug("installGame({})", object);
 
-        if (object instanceof GHRelease) {
-            installRelease((GHRelease)object);
-        } else if (object instanceof GHWorkflowRun) {
-            installWorkflowRun((GHWorkflowRun)object);
-        } else {
-            throw new UnsupportedOperationException("Unknown game type");
+        InstallSummary summary = new InstallSummary();
+        TransferMetrics.addListener(summary);
+        try {
+            if (object instanceof GHRelease) {
+                installRelease((GHRelease)object);
+            } else if (object instanceof GHWorkflowRun) {
+                installWorkflowRun((GHWorkflowRun)object);
+            } else {
+                throw new UnsupportedOperationException("Unknown game type");
+            }
+        } finally {
+            TransferMetrics.removeListener(summary);
+            log.info("install summary for {}: {}", object.getId(), summary);
         }
 //        log.debug("writing metadata...");
 //        File metadata = new File(target, "metadata.json");
@@ -478,20 +870,17 @@ public class Util {
     }
     
     /**
-     * Deletes a file/directory recursively.
+     * Deletes a file/directory recursively, using several threads.
+     * Symbolic links are deleted, not followed.
      * 
      * @param file the file to delete
      */
     public static void deleteDir(File file) {
-        File[] contents = file.listFiles();
-        if (contents != null) {
-            for (File f : contents) {
-                if (! Files.isSymbolicLink(f.toPath())) {
-                    deleteDir(f);
-                }
-            }
+        try {
+            FileDeleter.delete(file.toPath());
+        } catch (IOException e) {
+            log.warn("Could not delete {} completely", file, e);
         }
-        file.delete();
     }
 
     /**
@@ -503,7 +892,9 @@ public class Util {
     public static void removeRelease(GHRelease release) throws IOException {
         log.debug("removeRelease({})", release);
         File target = new File(getGamesFolder(), String.valueOf(release.getId()));
-        deleteDir(target);
+        // the content is deleted in the background
+        FileDeleter.deleteLater(target.toPath());
+        new BlobStore().collectGarbage();
     }
     
     /**
@@ -533,6 +924,53 @@ public class Util {
         return new File(getManagedJSettlersFolder(), "temp");
     }
 
+    /**
+     * Returns the folder installations are built in before they are moved
+     * into the games folder.
+     * 
+     * @return the folder reference
+     */
+    public static File getStagingFolder() {
+        return new File(getManagedJSettlersFolder(), "staging");
+    }
+
+    /**
+     * Returns the folder for the GitHub API responses kept on disk.
+     * 
+     * @return the folder reference
+     */
+    public static File getCatalogFolder() {
+        return new File(getManagedJSettlersFolder(), "catalog");
+    }
+
+    /**
+     * Returns the folder for files and folders being deleted in the
+     * background.
+     * 
+     * @return the folder reference
+     */
+    public static File getTrashFolder() {
+        return new File(getManagedJSettlersFolder(), "trash");
+    }
+
+    /**
+     * Returns the folder for the files shared by installed game versions.
+     * 
+     * @return the folder reference
+     */
+    public static File getBlobFolder() {
+        return new File(getManagedJSettlersFolder(), "blobs");
+    }
+
+    /**
+     * Returns the folder for the download cache.
+     * 
+     * @return the folder reference
+     */
+    public static File getManagedCacheFolder() {
+        return new File(getManagedJSettlersFolder(), "cache");
+    }
+
     /**
      * Returns the folder containing the Settlers data files.
      * 
@@ -570,6 +1008,7 @@ public class Util {
         log.debug("runGame({})", game);
         File target = new File(getGamesFolder(), String.valueOf(game.getId()));
         File jarfile = new File(target, jarname);
+        checkInstall(target);
         
         int rc = execJarFile(jarfile);
         if (rc != 0) {
@@ -589,6 +1028,7 @@ public class Util {
         log.debug("runGame({})", game);
         File target = new File(game.getInstallPath());
         File jarfile = new File(target, jarname);
+        checkInstall(target);
         
         int rc = execJarFile(jarfile);
         if (rc != 0) {
@@ -596,6 +1036,32 @@ public class Util {
         }
     }
 
+    /**
+     * Sets whether installations are verified by checksum before they are
+     * started. Otherwise only the file sizes are compared, which is fast
+     * enough for every start.
+     * 
+     * @param full true to compare checksums
+     */
+    public static void setVerifyChecksums(boolean full) {
+        verifyChecksums = full;
+    }
+
+    /**
+     * Verifies and repairs an installation before it is started. One that
+     * cannot be repaired is removed, so it can be installed again.
+     * 
+     * @param installFolder the installation
+     * @throws IOException the installation is damaged beyond repair
+     */
+    private static void checkInstall(File installFolder) throws IOException {
+        if (!verifyInstall(installFolder, verifyChecksums)) {
+            log.warn("{} is damaged and cannot be repaired", installFolder.getAbsolutePath());
+            FileDeleter.deleteLater(installFolder.toPath());
+            throw new IOException(String.format("The installation in %s was damaged and has been removed. Please install it again.", installFolder.getAbsolutePath()));
+        }
+    }
+
     /**
      * Runs an executable jar in a separate JVM.
      * 
@@ -918,19 +1384,23 @@ public class Util {
         }
     }
     
+    /**
+     * Downloads the url into the given file. Partial downloads are kept in the
+     * managed temp folder and resumed on the next attempt.
+     *
+     * @param url the url to download from
+     * @param download the file to store the data
+     * @throws IOException something went wrong
+     */
     private static void download(URL url, File download) throws IOException {
         log.debug("download({}, {})", url, download);
-        try (InputStream in = url.openStream()) {
-            Files.copy(in, download.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        } catch (Exception e) {
-            throw new IOException(String.format("Could not download %s to %s", url, download), e);
-        }
-        
+        new Downloader().download(url, download);
         log.debug("stored in {}", download);
     }
 
     /**
-     * Downloads an asset into a temporary file and returns the file.
+     * Downloads an asset into the artifact cache and returns the file.
+     * If the asset is cached already, it is not downloaded again.
      * 
      * @param asset the asset to download
      * @return the local file
@@ -938,20 +1408,42 @@ public class Util {
      */
     public static File downloadAsset(GHAsset asset) throws IOException {
         log.debug("downloadAsset({})", asset);
+        ArtifactCache cache = new ArtifactCache();
+        File cached = cache.get(ArtifactCache.Kind.ASSET, asset.getId());
+        if (cached != null) {
+            return cached;
+        }
+        
         URL url = new URL(asset.getBrowserDownloadUrl());
         File tempFolder = getManagedTempFolder();
         tempFolder.mkdirs();
         
         File download = File.createTempFile(asset.getName()+"_"+asset.getId(), ".zip", tempFolder);
-        return download;
+        download(url, download);
+        return cache.put(ArtifactCache.Kind.ASSET, asset.getId(), download, GitHubCatalog.getDigest(asset));
     }
     
     private static List<GHObject> availableGamesCache;
     private static Instant availableGamesCacheExpiry;
     private static Duration availableGamesCacheTTL = Duration.ofMinutes(60);
+    private static GraphQLCatalog graphQLCatalog;
+    private static volatile boolean verifyChecksums;
+    private static final CatalogSync catalogSync = new CatalogSync();
+    
+    /**
+     * Sets the catalog used to find workflow runs with few requests.
+     * Without it, or when it fails, workflow runs are crawled over REST.
+     * 
+     * @param catalog the catalog, or null to always crawl
+     */
+    public static void setGraphQLCatalog(GraphQLCatalog catalog) {
+        graphQLCatalog = catalog;
+    }
     
     /**
      * Returns the list of games available on Github.
+     * Once the cache expired, only games newer than the known ones are
+     * fetched, see {@link CatalogSync}.
      * 
      * @param github the githup api client
      * @param releasesOnly true if the scan should just contain releases
@@ -963,63 +1455,100 @@ public class Util {
         
         if (availableGamesCache==null || (availableGamesCacheExpiry!=null && Instant.now().isAfter(availableGamesCacheExpiry))) {
             // either we have no cache or it is expired. Request new data
+            catalogSync.expire();
+            availableGamesCache = listGames(github, releasesOnly, true, catalogSync);
+            availableGamesCacheExpiry = Instant.now().plus(availableGamesCacheTTL);
+        }
+        return availableGamesCache;
+    }
+    
+    /**
+     * Returns the list of games available on Github as it was last seen.
+     * The client must answer from disk only, see
+     * {@link GitHubCatalog#getCachedConnector()}, so the rate limit is not
+     * checked. If any response was never stored, nothing is returned.
+     * 
+     * @param github the githup api client answering from stored responses
+     * @param releasesOnly true if the scan should just contain releases
+     * @return the list of games, empty if it was not stored completely
+     * @throws IOException something went wrong
+     */
+    public static List<GHObject> getCachedGames(GitHub github, boolean releasesOnly) throws IOException {
+        log.debug("getCachedGames({}, {})", github, releasesOnly);
+        try {
+            return listGames(github, releasesOnly, false, null);
+        } catch (IOException | GHException e) {
+            // a response missing on disk fails with 504 instead of going to GitHub
+            log.debug("Game list is not stored completely", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    private static boolean hasBudget(GitHub github, boolean checkRateLimit) throws IOException {
+        return !checkRateLimit || RateLimitBudget.getDefault().getRemaining(github)>GITHUB_MIN_LIMIT4BROWSING;
+    }
+    
+    private static List<GHObject> listGames(GitHub github, boolean releasesOnly, boolean checkRateLimit, CatalogSync sync) throws IOException {
+        int limit = 30; // do not fetch more than this much runs
+        List<GHRelease> releases = new ArrayList<>();
+        GHRepository repository = null;
+        
+        if (hasBudget(github, checkRateLimit)) {
+            repository = github.getRepository(GITHUB_REPO_NAME);
+            log.debug("Listing releases...");
+            releases.addAll(sync != null ? sync.listNewReleases(repository) : repository.listReleases().toList());
+            log.debug("Found {} releases", releases.size());
+        }
 
-            List<GHObject> result = new ArrayList<>();
-            GHRepository repository = null;
-            
-            if (github.getRateLimit().getRemaining()>GITHUB_MIN_LIMIT4BROWSING) {
-                repository = github.getRepository(GITHUB_REPO_NAME);
-                log.debug("Listing releases...");
-                result.addAll(repository.listReleases().toList());
-                log.debug("Found {} releases", result.size());
+        List<GHWorkflowRun> runs = releasesOnly ? null : new ArrayList<>();
+        CatalogSync.Source source = CatalogSync.Source.REST;
+        Map<Long, Long> marks = new HashMap<>();
+        if (!releasesOnly && hasBudget(github, checkRateLimit)) {
+            runs = null;
+            if (graphQLCatalog != null && checkRateLimit) {
+                log.debug("Querying workflow runs...");
+                try {
+                    source = CatalogSync.Source.GRAPHQL;
+                    marks = sync != null ? sync.getNewestRuns(source) : new HashMap<>();
+                    runs = graphQLCatalog.findRunsWithArtifacts(repository, limit, GITHUB_MIN_LIMIT4BROWSING, marks);
+                } catch (IOException e) {
+                    log.warn("Could not query workflow runs, crawling instead", e);
+                }
             }
-
-            if (!releasesOnly && github.getRateLimit().getRemaining()>GITHUB_MIN_LIMIT4BROWSING) {
-                int limit = 30; // do not fetch more than this much runs
-                
-                //result.addAll(repository.listArtifacts().toList());
+            if (runs == null) {
                 log.debug("Listing workflow runs...");
                 List<GHWorkflow> workflows = repository.listWorkflows().toList();
-                if (github.getRateLimit().getRemaining()>GITHUB_MIN_LIMIT4BROWSING) {
-                    for (GHWorkflow workflow: workflows) {
-                        if (github.getRateLimit().getRemaining()>GITHUB_MIN_LIMIT4BROWSING) {
-                            for (GHWorkflowRun run: workflow.listRuns().toList()) {
-                                if (github.getRateLimit().getRemaining()>GITHUB_MIN_LIMIT4BROWSING) {
-                                    if (!run.listArtifacts().toList().isEmpty()) {
-                                        result.add(run);
-                                        limit--;
-                                    }
-                                }
-                                
-                                if (limit <= 0) {
-                                    break;
-                                }
-                            }
-                        }
-
-                        if (limit <= 0) {
-                            break;
-                        }
-                    }
-                }
+                RateLimitBudget budget = checkRateLimit ? RateLimitBudget.getDefault() : null;
+                source = CatalogSync.Source.REST;
+                marks = sync != null ? sync.getNewestRuns(source) : new HashMap<>();
+                runs = new CatalogCrawler(budget, GITHUB_MIN_LIMIT4BROWSING).findRunsWithArtifacts(workflows, limit, marks);
             }
-            
-            log.debug("Found {} games", result.size());
-            availableGamesCache = sortGHObjectByDate(result);
-            availableGamesCacheExpiry = Instant.now().plus(availableGamesCacheTTL);
         }
-        return availableGamesCache;
+        
+        List<GHObject> result;
+        if (sync != null) {
+            result = sync.merge(releases, runs, source, marks, limit);
+        } else {
+            result = new ArrayList<>(releases);
+            if (runs != null) {
+                result.addAll(runs);
+            }
+        }
+        log.debug("Found {} games", result.size());
+        return sortGHObjectByDate(result);
     }
     
     /**
      * Checks if the specified Github Object resembling a game is installed locally.
+     * Installations are moved into place complete with their metadata, so
+     * a folder without it is a leftover of an older installer version.
      * 
      * @param object the game
      * @return true if it is installed, false otherwise
      */
     public static boolean isInstalled(GHObject object) {
         File target = new File(Util.getGamesFolder(), String.valueOf(object.getId()));
-        return target.isDirectory();
+        return new File(target, "metadata.json").isFile();
     }
     
     /**
@@ -1129,7 +1658,7 @@ public class Util {
         return latest;
     }
     
-    private static boolean copyGameDataIfExists(File src, File dst, String subfolder) throws IOException {
+    private static boolean copyGameDataIfExists(File src, File dst, String subfolder, List<File> copied, TransferMetrics metrics) throws IOException {
         log.debug("copyGameDataIfExists({}, {}, {})", src, dst, subfolder);
         
         File s2 = new File(src, subfolder);
@@ -1139,12 +1668,36 @@ public class Util {
             d2.mkdirs();
         }
         
-        if (s2.isDirectory()) {
-            FileUtils.copyDirectory(s2, d2);        
+        if (s2.isDirectory() && !containsSameFile(copied, s2)) {
+            copied.add(s2);
+            // file by file, so progress can be reported
+            for (File f : FileUtils.listFilesAndDirs(s2, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE)) {
+                File d = new File(d2, s2.toPath().relativize(f.toPath()).toString());
+                if (f.isDirectory()) {
+                    // keeps empty folders, too
+                    d.mkdirs();
+                } else {
+                    FileUtils.copyFile(f, d);
+                    metrics.add(f.length());
+                }
+            }
         }
         return d2.isDirectory();
     }
     
+    /**
+     * Checks whether the folder is one of the given ones. On case insensitive
+     * file systems gfx and GFX are the same folder.
+     */
+    private static boolean containsSameFile(List<File> folders, File folder) throws IOException {
+        for (File f : folders) {
+            if (Files.isSameFile(f.toPath(), folder.toPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Copies only the required game data from an S3 folder.
      * Required are GFX, MAP and SND files.
@@ -1154,12 +1707,26 @@ public class Util {
      * @throws IOException something went wrong
      */
     public static void copyGameData(File src, File dst) throws IOException {
-        copyGameDataIfExists(src, dst, "gfx");
-        copyGameDataIfExists(src, dst, "GFX");
-        copyGameDataIfExists(src, dst, "map");
-        copyGameDataIfExists(src, dst, "MAP");
-        copyGameDataIfExists(src, dst, "snd");
-        copyGameDataIfExists(src, dst, "SND");
+        String[] subfolders = {"gfx", "GFX", "map", "MAP", "snd", "SND"};
+        TransferMetrics metrics = new TransferMetrics(src.getName(), TransferMetrics.Kind.DISK);
+        long total = 0;
+        List<File> counted = new ArrayList<>();
+        for (String subfolder : subfolders) {
+            File s2 = new File(src, subfolder);
+            if (s2.isDirectory() && !containsSameFile(counted, s2)) {
+                counted.add(s2);
+                total += FileUtils.sizeOfDirectory(s2);
+            }
+        }
+        metrics.setTotal(total);
+        try {
+            List<File> copied = new ArrayList<>();
+            for (String subfolder : subfolders) {
+                copyGameDataIfExists(src, dst, subfolder, copied, metrics);
+            }
+        } finally {
+            metrics.finish();
+        }
     }
     
 //    public static void removeAllButFive() {
@@ -1173,25 +1740,43 @@ public class Util {
 //    }
 
     /**
-     * Removes temporary files older than 7 days.
+     * Removes installations left incomplete by a crash, temporary files older
+     * than 7 days, shrinks the artifact cache to it's size limit and drops
+     * unreferenced blobs. Must only be called while no installation is running.
+     * Files are moved to the trash and deleted in the background.
      */
     public static void cleanTemp() {
+        FileDeleter.emptyTrash();
+        
+        // anything still staged never made it into the games folder
+        File staging = getStagingFolder();
+        if (staging.isDirectory()) {
+            log.info("deleting incomplete installations in {}", staging);
+            deleteLater(staging);
+        }
+        new ArtifactCache().evict();
+        new BlobStore().collectGarbage();
+        
         File temp = getManagedTempFolder();
         if (temp.isDirectory()) {
             Date threshold = Date.from(Instant.now().minus(7, ChronoUnit.DAYS));
             for (File f: temp.listFiles()) {
                 if (new Date(f.lastModified()).before(threshold)) {
                     log.info("deleting old temp file {}", f);
-                    if (f.isDirectory()) {
-                        deleteDir(f);
-                    } else {
-                        f.delete();
-                    }
+                    deleteLater(f);
                 }
             }
         }
     }
     
+    private static void deleteLater(File file) {
+        try {
+            FileDeleter.deleteLater(file.toPath());
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+    
     /**
      * Returns the folder containing the Settlers music files.
      * 
@@ -1203,27 +1788,8 @@ public class Util {
     }
 
     /**
-     * Downloads a file - unless the target exists already.
-     * 
-     * @param url the url to downlad from
-     * @param target the file to save it to
-     */
-    private static void downloadIfNotExists(URL url, File target) {
-        log.info("downloadIfNotExists({}, {})", url, target);
-        try {
-            if (!target.exists()) {
-                target.getParentFile().mkdirs();
-                download(url, new File(target.getParentFile(), new File(url.getFile()).getName()));
-            } else {
-                log.info("skipped");
-            }
-        } catch (IOException e) {
-            log.warn("Could not download {}", url, e);
-        }
-    }
-    
-    /**
-     * Downloads music soundtrack from internet.
+     * Downloads music soundtrack from internet and waits until all tracks
+     * are processed.
      * 
      * @throws MalformedURLException 
      */
@@ -1235,49 +1801,10 @@ public class Util {
             log.info("    {}", type);
         }
         
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/cjllbhbk/Track02.mp3"), 
-                new File(getMusicFolder(), "Track02.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/yqtjxvfd/Track03.mp3"), 
-                new File(getMusicFolder(), "Track03.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/guohbfll/Track04.mp3"), 
-                new File(getMusicFolder(), "Track04.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/qshzkbmf/Track05.mp3"), 
-                new File(getMusicFolder(), "Track05.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/ditkixfr/Track06.mp3"), 
-                new File(getMusicFolder(), "Track06.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xncrscbv/Track07.mp3"), 
-                new File(getMusicFolder(), "Track07.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xbicjisa/Track08.mp3"), 
-                new File(getMusicFolder(), "Track08.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/qiapnlgt/Track09.mp3"), 
-                new File(getMusicFolder(), "Track09.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/sxensioh/Track10.mp3"), 
-                new File(getMusicFolder(), "Track10.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/oiclfhiy/Track11.mp3"), 
-                new File(getMusicFolder(), "Track11.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/mjaqypyv/Track12.mp3"), 
-                new File(getMusicFolder(), "Track12.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/xcuqzsvg/Track13.mp3"), 
-                new File(getMusicFolder(), "Track13.ogg"));
-        downloadIfNotExists(new URL("https://vgmsite.com/soundtracks/settlers-iii-ultimate-collection-music/yypsitan/Track14.mp3"), 
-                new File(getMusicFolder(), "Track14.ogg"));
-        
-        // convert mp3 to ogg
-        ProcessBuilder pb = new ProcessBuilder("dir2ogg", "--directory", getMusicFolder().getAbsolutePath());
-        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
-        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
-        pb.redirectInput(ProcessBuilder.Redirect.INHERIT);
-        Process p = pb.start();
-        p.waitFor();
-        int rc = p.exitValue();
-        log.info("returned with {}", rc);
-        
-        // remove mp3
-        File[] tracks = getMusicFolder().listFiles();
-        for (File track: tracks) {
-            if (track.getName().endsWith(".mp3")) {
-                track.delete();
-            }
+        try {
+            MusicSync.start().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not download music", e.getCause());
         }
     }
 }
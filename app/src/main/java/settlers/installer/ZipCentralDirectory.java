@@ -0,0 +1,299 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a ZIP archive directly from the file.
+ * Unlike ZipFile it exposes where each entry's data is stored, so entries
+ * that are not compressed can be copied without passing through the JVM.
+ * Data in front of the archive (e.g. the executable of a self-extracting
+ * archive) is detected and taken into account.
+ *
+ * @author hiran
+ */
+public class ZipCentralDirectory {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int EOCD64_SIGNATURE = 0x06064b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT = 0xffff;
+
+    /** Compression method for entries that are stored as is. */
+    public static final int STORED = 0;
+    /** Compression method for deflated entries. */
+    public static final int DEFLATED = 8;
+
+    /**
+     * A single entry of the central directory.
+     */
+    public static class Entry {
+        private String name;
+        private int method;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+
+        /**
+         * Returns the entry's name.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the compression method.
+         *
+         * @return the method, e.g. {@link #STORED}
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns the CRC-32 of the uncompressed data.
+         *
+         * @return the crc
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Returns the size of the stored data.
+         *
+         * @return the compressed size
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Returns the size of the uncompressed data.
+         *
+         * @return the size
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the position of the local header in the file, already
+         * corrected for data in front of the archive.
+         *
+         * @return the offset
+         */
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * Returns whether this entry is a directory.
+         *
+         * @return true for directories
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final long archiveOffset;
+    private final List<Entry> entries;
+
+    private ZipCentralDirectory(long archiveOffset, List<Entry> entries) {
+        this.archiveOffset = archiveOffset;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the number of bytes in front of the archive.
+     *
+     * @return the offset of the archive in the file, 0 for plain ZIP files
+     */
+    public long getArchiveOffset() {
+        return archiveOffset;
+    }
+
+    /**
+     * Returns the entries in the order of the central directory.
+     *
+     * @return the entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Locates and parses the central directory.
+     *
+     * @param channel the archive
+     * @return the central directory
+     * @throws IOException the file cannot be read or is no ZIP archive
+     */
+    public static ZipCentralDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) <= tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("No end of central directory found");
+        }
+        long eocdPosition = fileSize - tailSize + eocd;
+        long count = tail.getShort(eocd + 10) & 0xffff;
+        long cdSize = tail.getInt(eocd + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+        long cdEnd = eocdPosition;
+
+        if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            if (eocdPosition < 20) {
+                throw new ZipException("Missing zip64 end of central directory locator");
+            }
+            long locatorPosition = eocdPosition - 20;
+            ByteBuffer locator = readFully(channel, locatorPosition, 20);
+            if (locator.getInt(0) != EOCD64_LOCATOR_SIGNATURE) {
+                throw new ZipException("Missing zip64 end of central directory locator");
+            }
+            long eocd64Position = findZip64Record(channel, locator.getLong(8), locatorPosition);
+            ByteBuffer eocd64 = readFully(channel, eocd64Position, 56);
+            count = eocd64.getLong(32);
+            cdSize = eocd64.getLong(40);
+            cdOffset = eocd64.getLong(48);
+            cdEnd = eocd64Position;
+        }
+
+        // anything the recorded offsets do not account for was prepended
+        long base = cdEnd - cdSize - cdOffset;
+        if (base < 0) {
+            throw new ZipException("Central directory offsets are inconsistent");
+        }
+
+        if (cdSize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too large: " + cdSize);
+        }
+
+        ByteBuffer cd = readFully(channel, base + cdOffset, (int) cdSize);
+        List<Entry> entries = new ArrayList<>();
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + 46 > cd.limit() || cd.getInt(pos) != CEN_SIGNATURE) {
+                throw new ZipException("Bad central directory entry " + i);
+            }
+            Entry e = new Entry();
+            e.method = cd.getShort(pos + 10) & 0xffff;
+            e.crc = cd.getInt(pos + 16) & 0xffffffffL;
+            e.compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            e.size = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            e.localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            byte[] name = new byte[nameLength];
+            cd.position(pos + 46);
+            cd.get(name);
+            // same default as ZipFile, so names can be matched
+            e.name = new String(name, StandardCharsets.UTF_8);
+            readZip64Extra(cd, pos + 46 + nameLength, extraLength, e);
+            e.localHeaderOffset += base;
+            entries.add(e);
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return new ZipCentralDirectory(base, Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Finds the zip64 end of central directory record. The locator names
+     * it's offset relative to the start of the archive. If data was
+     * prepended, the record is not there; it then has to end where the
+     * locator starts, which holds unless the record carries extensible data.
+     */
+    private static long findZip64Record(FileChannel channel, long recordedOffset, long locatorPosition) throws IOException {
+        if (recordedOffset >= 0 && recordedOffset + 56 <= locatorPosition
+                && readFully(channel, recordedOffset, 4).getInt(0) == EOCD64_SIGNATURE) {
+            return recordedOffset;
+        }
+        long position = locatorPosition - 56;
+        if (position >= 0 && readFully(channel, position, 4).getInt(0) == EOCD64_SIGNATURE) {
+            return position;
+        }
+        throw new ZipException("Missing zip64 end of central directory");
+    }
+
+    /**
+     * Returns the position of the entry's data, behind it's local header.
+     *
+     * @param channel the archive
+     * @param entry the entry
+     * @return the position in the file
+     * @throws IOException the local header is missing or cannot be read
+     */
+    public static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer loc = readFully(channel, entry.localHeaderOffset, LOC_SIZE);
+        if (loc.getInt(0) != LOC_SIGNATURE) {
+            throw new ZipException("Bad local header for " + entry.name);
+        }
+        return entry.localHeaderOffset + LOC_SIZE + (loc.getShort(26) & 0xffff) + (loc.getShort(28) & 0xffff);
+    }
+
+    /**
+     * Replaces 32 bit values marked as overflowed with those from the zip64
+     * extra field.
+     */
+    private static void readZip64Extra(ByteBuffer cd, int start, int length, Entry e) {
+        int pos = start;
+        while (pos + 4 <= start + length) {
+            int id = cd.getShort(pos) & 0xffff;
+            int size = cd.getShort(pos + 2) & 0xffff;
+            if (id == 0x0001) {
+                int p = pos + 4;
+                if (e.size == 0xffffffffL && p + 8 <= pos + 4 + size) {
+                    e.size = cd.getLong(p);
+                    p += 8;
+                }
+                if (e.compressedSize == 0xffffffffL && p + 8 <= pos + 4 + size) {
+                    e.compressedSize = cd.getLong(p);
+                    p += 8;
+                }
+                if (e.localHeaderOffset == 0xffffffffL && p + 8 <= pos + 4 + size) {
+                    e.localHeaderOffset = cd.getLong(p);
+                }
+                return;
+            }
+            pos += 4 + size;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
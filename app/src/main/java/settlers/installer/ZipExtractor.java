@@ -0,0 +1,616 @@
+/*
+ */
+package settlers.installer;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.model.InstallManifest;
+import settlers.installer.model.InstalledFile;
+
+/**
+ * Extracts ZIP archives using several threads.
+ * The archive is opened through its central directory, so every entry can be
+ * read independently. Entries are spread over a worker pool, largest first,
+ * and inflated and written in parallel. Directories are created up front.
+ * Stored entries are copied with FileChannel.transferTo straight from their
+ * data offset in the archive, so their bytes need no user-space copy. They
+ * are only read back to check their CRC-32 or compute a digest, see
+ * {@link #setVerify(boolean)}. Deflated entries are read by position from a
+ * shared FileChannel into pooled direct buffers and inflated with pooled
+ * Inflaters, see {@link ExtractBuffers}.
+ * Modification times are applied in one pass at the end.
+ * Optionally, files already present in other installations are hard linked
+ * rather than extracted, see {@link #setReuse(InstalledFileIndex)}.
+ * Every inflated file is checked against the CRC-32 recorded in the archive
+ * while it is written. On request a SHA-256 is computed in the same pass, see
+ * {@link #setDigest(boolean)}.
+ * Archives nested in another archive are read straight out of it, see
+ * {@link #extractNested(File, String, File, TransferMetrics)}.
+ *
+ * @author hiran
+ */
+public class ZipExtractor {
+    private static final Logger log = LogManager.getLogger(ZipExtractor.class);
+
+    private final int threads;
+    private InstalledFileIndex reuse;
+    private boolean digest;
+    private boolean verify = true;
+    private Predicate<String> filter;
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an extractor using one thread per processor.
+     */
+    public ZipExtractor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an extractor.
+     *
+     * @param threads the number of worker threads
+     */
+    public ZipExtractor(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the index of files installed already. Entries with the same
+     * content as an indexed file are hard linked to it instead of being
+     * extracted. Size and CRC-32 only find the candidate; the content is
+     * compared before linking. Linked files keep their modification time,
+     * since they are shared with other installations.
+     *
+     * @param reuse the index, or null to extract everything
+     */
+    public void setReuse(InstalledFileIndex reuse) {
+        this.reuse = reuse;
+    }
+
+    /**
+     * Enables computing the SHA-256 of each extracted file while it is
+     * written. Files that are linked keep the digest known for them.
+     *
+     * @param digest true to compute digests
+     */
+    public void setDigest(boolean digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Enables reading stored entries back after they were copied, to check
+     * their CRC-32. Without it, stored entries never pass through user space.
+     * Computing digests reads them back anyway, see
+     * {@link #setDigest(boolean)}.
+     *
+     * @param verify true to check stored entries
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Restricts extraction to some of the files, e.g. to repair an
+     * installation.
+     *
+     * @param filter accepts the names of the entries to extract, or null for all
+     */
+    public void setFilter(Predicate<String> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the digests computed by the last extraction.
+     *
+     * @return the SHA-256 in hex by entry name
+     */
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+
+    /**
+     * Extracts the archive into the target folder.
+     *
+     * @param archive the archive to extract
+     * @param target the directory to store it's content
+     * @param metrics receives the compressed size of each extracted entry, may be null
+     * @throws IOException something went wrong
+     */
+    public void extract(File archive, File target, TransferMetrics metrics) throws IOException {
+        ZipCentralDirectory directory = null;
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            directory = ZipCentralDirectory.read(channel);
+        } catch (IOException e) {
+            log.debug("Cannot read central directory, extracting all entries as streams", e);
+        }
+        extract(archive, directory, target, metrics);
+    }
+
+    /**
+     * Extracts the archive into the target folder, using a central directory
+     * the caller has read already.
+     *
+     * @param archive the archive to extract
+     * @param directory the archive's central directory, or null to extract all entries as streams
+     * @param target the directory to store it's content
+     * @param metrics receives the compressed size of each extracted entry, may be null
+     * @throws IOException something went wrong
+     */
+    public void extract(File archive, ZipCentralDirectory directory, File target, TransferMetrics metrics) throws IOException {
+        log.debug("extract({}, {})", archive, target);
+        if (!target.exists() && !target.mkdirs()) {
+            throw new IOException(String.format("Could not create folder %s", target.getAbsolutePath()));
+        }
+
+        digests.clear();
+        try (ZipFile zip = new ZipFile(archive); FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            Map<String, ZipCentralDirectory.Entry> records = toRecords(directory);
+            List<Path> directories = new ArrayList<>();
+            List<FileTime> directoryTimes = new ArrayList<>();
+            List<ZipEntry> files = new ArrayList<>();
+            Map<ZipEntry, Path> destinations = new HashMap<>();
+            Path targetPath = target.toPath();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path dest = targetPath.resolve(entry.getName());
+                if (!dest.normalize().startsWith(targetPath)) {
+                    log.warn("While unzipping we found {} would expand outside {}", dest, target);
+                    throw new ZipException("Bad ZIP entry " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    directories.add(dest);
+                    directoryTimes.add(entry.getLastModifiedTime());
+                } else if (filter == null || filter.test(entry.getName())) {
+                    files.add(entry);
+                    destinations.put(entry, dest);
+                }
+            }
+
+            // parent folders must exist before the workers write into them
+            for (Path dir : directories) {
+                Files.createDirectories(dir);
+            }
+            for (Path dest : destinations.values()) {
+                Files.createDirectories(dest.getParent());
+            }
+
+            // largest first, so no single big file is left for the end
+            files.sort(Collections.reverseOrder((a, b) -> Long.compare(a.getCompressedSize(), b.getCompressedSize())));
+            Set<Path> linked = ConcurrentHashMap.newKeySet();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())));
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (ZipEntry entry : files) {
+                    futures.add(executor.submit(() -> {
+                        Path dest = destinations.get(entry);
+                        ZipCentralDirectory.Entry cen = records.get(entry.getName());
+                        MessageDigest md = digest ? newDigest() : null;
+                        if (linkIfSame(zip, entry, dest)) {
+                            linked.add(dest);
+                            md = null;
+                        } else if (cen != null && cen.getMethod() == ZipCentralDirectory.STORED) {
+                            extractStored(channel, cen, dest, md, verify);
+                        } else if (cen != null && cen.getMethod() == ZipCentralDirectory.DEFLATED) {
+                            extractDeflated(channel, cen, dest, md);
+                        } else {
+                            extractEntry(zip, entry, dest, md);
+                        }
+                        if (md != null) {
+                            digests.put(entry.getName(), Hex.encodeHexString(md.digest()));
+                        }
+                        if (metrics != null) {
+                            metrics.add(entry.getCompressedSize());
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(String.format("Interrupted extracting %s", archive), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(String.format("Could not extract %s", archive), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (reuse != null) {
+                log.info("linked {} of {} files from other installations", linked.size(), files.size());
+            }
+
+            // metadata in one pass, after all content is written
+            for (ZipEntry entry : files) {
+                if (!linked.contains(destinations.get(entry))) {
+                    Files.setLastModifiedTime(destinations.get(entry), entry.getLastModifiedTime());
+                }
+            }
+            for (int i = 0; i < directories.size(); i++) {
+                if (directoryTimes.get(i) != null) {
+                    Files.setLastModifiedTime(directories.get(i), directoryTimes.get(i));
+                }
+            }
+        }
+        log.debug("extracted {} to {}", archive, target);
+    }
+
+    /**
+     * Extracts an archive contained in another archive. The inner archive is
+     * inflated from the outer one while it's entries are extracted, so it is
+     * never written to disk.
+     *
+     * @param archive the outer archive
+     * @param innerArchive the name of the inner archive within the outer one
+     * @param target the directory to store the inner archive's content
+     * @param metrics receives the compressed size of each extracted entry, may be null
+     * @return the files extracted
+     * @throws IOException something went wrong
+     */
+    public InstallManifest extractNested(File archive, String innerArchive, File target, TransferMetrics metrics) throws IOException {
+        log.debug("extractNested({}, {}, {})", archive, innerArchive, target);
+        try (ZipFile zip = new ZipFile(archive)) {
+            ZipEntry entry = zip.getEntry(innerArchive);
+            if (entry == null) {
+                throw new ZipException(String.format("%s does not contain %s", archive, innerArchive));
+            }
+            if (metrics != null) {
+                metrics.setTotal(entry.getSize());
+            }
+            try (InputStream in = new BufferedInputStream(zip.getInputStream(entry), ExtractBuffers.BUFFER_SIZE)) {
+                return extract(in, target, metrics);
+            }
+        }
+    }
+
+    /**
+     * Extracts an archive while reading it from a stream. Entries are
+     * written one after the other, ZipInputStream checks their CRC-32.
+     * The stream is not closed.
+     *
+     * @param in the stream delivering the archive
+     * @param target the directory to store it's content
+     * @param metrics receives the compressed size of each extracted entry, may be null
+     * @return the files extracted
+     * @throws IOException something went wrong
+     */
+    public InstallManifest extract(InputStream in, File target, TransferMetrics metrics) throws IOException {
+        if (!target.exists() && !target.mkdirs()) {
+            throw new IOException(String.format("Could not create folder %s", target.getAbsolutePath()));
+        }
+
+        digests.clear();
+        InstallManifest result = new InstallManifest();
+        List<Path> paths = new ArrayList<>();
+        List<FileTime> times = new ArrayList<>();
+        Path targetPath = target.toPath();
+        int linked = 0;
+        ZipInputStream zipIn = new ZipInputStream(in);
+        for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+            Path dest = targetPath.resolve(entry.getName());
+            if (!dest.normalize().startsWith(targetPath)) {
+                log.warn("While unzipping we found {} would expand outside {}", dest, target);
+                throw new ZipException("Bad ZIP entry " + entry.getName());
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(dest);
+            } else {
+                if (filter != null && !filter.test(entry.getName())) {
+                    continue;
+                }
+                Files.createDirectories(dest.getParent());
+                // a stream cannot be read twice, so the entry is written and replaced by a link afterwards
+                MessageDigest md = digest || reuse != null ? newDigest() : null;
+                ExtractBuffers.copy(md != null ? new DigestInputStream(zipIn, md) : zipIn, dest);
+                zipIn.closeEntry();
+
+                // size and CRC are known once the entry is read, even if the local header lacks them
+                InstalledFile f = new InstalledFile();
+                f.setName(entry.getName());
+                f.setSize(entry.getSize());
+                f.setCrc(entry.getCrc());
+                if (md != null) {
+                    f.setSha256(Hex.encodeHexString(md.digest()));
+                    digests.put(entry.getName(), f.getSha256());
+                }
+                result.getFiles().add(f);
+                if (metrics != null) {
+                    metrics.add(Math.max(0, entry.getCompressedSize()));
+                }
+                if (f.getSha256() != null && link(f, dest)) {
+                    linked++;
+                    continue;
+                }
+            }
+            if (entry.getLastModifiedTime() != null) {
+                paths.add(dest);
+                times.add(entry.getLastModifiedTime());
+            }
+        }
+
+        if (reuse != null) {
+            log.info("linked {} of {} files from other installations", linked, result.getFiles().size());
+        }
+        // metadata in one pass, after all content is written
+        for (int i = 0; i < paths.size(); i++) {
+            Files.setLastModifiedTime(paths.get(i), times.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Hard links the entry to an installed file with the same content, if
+     * there is one. The candidate found by size and CRC-32 is compared byte
+     * by byte with the entry. Reflinks would be safer against in-place
+     * modification, but Java offers no API for them.
+     */
+    private boolean linkIfSame(ZipFile zip, ZipEntry entry, Path dest) {
+        if (reuse == null || entry.getCrc() == -1) {
+            return false;
+        }
+        Path existing = reuse.find(entry.getSize(), entry.getCrc());
+        if (existing == null) {
+            return false;
+        }
+        try {
+            if (!sameContent(zip, entry, existing)) {
+                log.debug("{} has the size and CRC of {} but other content", entry.getName(), existing);
+                return false;
+            }
+            Files.deleteIfExists(dest);
+            Files.createLink(dest, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Cannot link {} to {}, extracting it", dest, existing, e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces an extracted file by a hard link to an installed file, if the
+     * index records the same SHA-256 for it.
+     */
+    private boolean link(InstalledFile file, Path dest) {
+        if (reuse == null) {
+            return false;
+        }
+        Path existing = reuse.find(file.getSize(), file.getCrc());
+        if (existing == null || !file.getSha256().equals(reuse.findSha256(file.getSize(), file.getCrc()))) {
+            return false;
+        }
+        // linked under another name first, so the extracted file stays if linking fails
+        Path link = dest.resolveSibling(dest.getFileName() + ".link");
+        try {
+            Files.deleteIfExists(link);
+            Files.createLink(link, existing);
+            Files.move(link, dest, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Cannot link {} to {}, keeping the extracted file", dest, existing, e);
+            try {
+                Files.deleteIfExists(link);
+            } catch (IOException e2) {
+                log.debug("Cannot remove {}", link, e2);
+            }
+            return false;
+        }
+    }
+
+    private static boolean sameContent(ZipFile zip, ZipEntry entry, Path file) throws IOException {
+        ExtractBuffers buffers = ExtractBuffers.acquire();
+        byte[] other = new byte[ExtractBuffers.BUFFER_SIZE];
+        try (InputStream a = zip.getInputStream(entry); InputStream b = Files.newInputStream(file)) {
+            byte[] own = buffers.getArray();
+            while (true) {
+                int n = a.readNBytes(own, 0, own.length);
+                int m = b.readNBytes(other, 0, n == 0 ? 1 : n);
+                if (n != m || !Arrays.equals(own, 0, n, other, 0, m)) {
+                    return false;
+                }
+                if (n == 0) {
+                    return true;
+                }
+            }
+        } finally {
+            buffers.release();
+        }
+    }
+
+    /**
+     * Returns the central directory records by name. If the central
+     * directory cannot be parsed, all entries use the ZipFile path.
+     */
+    private static Map<String, ZipCentralDirectory.Entry> toRecords(ZipCentralDirectory directory) {
+        Map<String, ZipCentralDirectory.Entry> result = new HashMap<>();
+        if (directory == null) {
+            return result;
+        }
+        for (ZipCentralDirectory.Entry e : directory.getEntries()) {
+            if (!e.isDirectory()) {
+                result.put(e.getName(), e);
+            }
+        }
+        return result;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies a stored entry with transferTo, which lets the operating system
+     * move the bytes without copying them into user space. The copy is read
+     * back only to check it's CRC-32 or compute it's digest.
+     */
+    private static void extractStored(FileChannel channel, ZipCentralDirectory.Entry entry, Path dest, MessageDigest md, boolean verify) throws IOException {
+        long position = ZipCentralDirectory.getDataOffset(channel, entry);
+        long size = entry.getSize();
+
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < size) {
+                // transferTo may move less than asked for, and nothing past the end of the archive
+                long n = channel.transferTo(position + done, size - done, out);
+                if (n <= 0) {
+                    throw new EOFException("Unexpected end of archive in " + entry.getName());
+                }
+                done += n;
+            }
+            if (md == null && !verify) {
+                return;
+            }
+
+            ExtractBuffers buffers = ExtractBuffers.acquire();
+            CRC32 crc = buffers.getCrc();
+            ByteBuffer data = buffers.getInput();
+            try {
+                for (long read = 0; read < size;) {
+                    data.clear();
+                    int n = out.read(data, read);
+                    if (n < 0) {
+                        throw new EOFException("Unexpected end of " + dest);
+                    }
+                    read += n;
+                    data.flip();
+                    crc.update(data);
+                    if (md != null) {
+                        data.position(0);
+                        md.update(data);
+                    }
+                }
+            } finally {
+                buffers.release();
+            }
+            if (crc.getValue() != entry.getCrc()) {
+                throw new ZipException(String.format("CRC mismatch for %s", entry.getName()));
+            }
+        }
+    }
+
+    /**
+     * Inflates an entry into the destination file, using only pooled direct
+     * buffers. The compressed data is read from the channel by position, so
+     * the workers share it without mapping the archive, which would keep the
+     * file locked on Windows until the mapping is garbage collected.
+     */
+    private static void extractDeflated(FileChannel channel, ZipCentralDirectory.Entry entry, Path dest, MessageDigest md) throws IOException {
+        long position = ZipCentralDirectory.getDataOffset(channel, entry);
+        long remaining = entry.getCompressedSize();
+        long written = 0;
+
+        ExtractBuffers buffers = ExtractBuffers.acquire();
+        Inflater inflater = buffers.getInflater();
+        CRC32 crc = buffers.getCrc();
+        ByteBuffer in = buffers.getInput();
+        ByteBuffer out = buffers.getOutput();
+        try (FileChannel fc = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (remaining <= 0) {
+                        throw new EOFException("Unexpected end of compressed data in " + entry.getName());
+                    }
+                    in.clear();
+                    in.limit((int) Math.min(in.capacity(), remaining));
+                    int n = channel.read(in, position);
+                    if (n < 0) {
+                        throw new EOFException("Unexpected end of archive in " + entry.getName());
+                    }
+                    position += n;
+                    remaining -= n;
+                    in.flip();
+                    inflater.setInput(in);
+                }
+
+                out.clear();
+                int n;
+                try {
+                    n = inflater.inflate(out);
+                } catch (DataFormatException e) {
+                    throw new ZipException(String.format("Invalid compressed data in %s: %s", entry.getName(), e.getMessage()));
+                }
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("Unsupported preset dictionary in " + entry.getName());
+                }
+                out.flip();
+                crc.update(out);
+                out.position(0);
+                if (md != null) {
+                    md.update(out);
+                    out.position(0);
+                }
+                while (out.hasRemaining()) {
+                    fc.write(out);
+                }
+                written += n;
+            }
+            if (written != entry.getSize() || crc.getValue() != entry.getCrc()) {
+                throw new ZipException(String.format("CRC or size mismatch for %s", entry.getName()));
+            }
+        } finally {
+            buffers.release();
+        }
+    }
+
+    private static void extractEntry(ZipFile zip, ZipEntry entry, Path dest, MessageDigest md) throws IOException {
+        // unlike ZipInputStream, ZipFile does not check the CRC itself
+        CRC32 crc = new CRC32();
+        InputStream source = zip.getInputStream(entry);
+        if (md != null) {
+            source = new DigestInputStream(source, md);
+        }
+        try (InputStream in = new CheckedInputStream(source, crc)) {
+            ExtractBuffers.copy(in, dest);
+        }
+        if (entry.getCrc() != -1 && entry.getCrc() != crc.getValue()) {
+            throw new ZipException(String.format("CRC mismatch for %s", entry.getName()));
+        }
+    }
+}
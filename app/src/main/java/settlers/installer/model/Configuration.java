@@ -44,6 +44,10 @@ public class Configuration {
     
     private String githubUsername;
     private String githubToken;
+
+    private long downloadRateLimit;
+    
+    private boolean verifyChecksums;
     
     private Configuration() {
     }
@@ -165,6 +169,44 @@ public class Configuration {
         }
     }
 
+    /**
+     * Returns the download rate limit.
+     * 
+     * @return the limit in bytes per second, 0 if unlimited
+     */
+    public long getDownloadRateLimit() {
+        return downloadRateLimit;
+    }
+
+    /**
+     * Sets the download rate limit.
+     * 
+     * @param downloadRateLimit the limit in bytes per second, 0 if unlimited
+     */
+    public void setDownloadRateLimit(long downloadRateLimit) {
+        this.downloadRateLimit = downloadRateLimit;
+    }
+
+    /**
+     * Returns whether installations are verified by checksum before they
+     * are started.
+     * 
+     * @return true to compare checksums, false to compare sizes only
+     */
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Sets whether installations are verified by checksum before they are
+     * started.
+     * 
+     * @param verifyChecksums true to compare checksums, false to compare sizes only
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
     /**
      * Stores the configuration to the given file.
      * 
@@ -180,6 +222,9 @@ public class Configuration {
 
         props.put("github.user", githubUsername);
         props.put("github.token", githubToken);
+
+        props.put("download.ratelimit", String.valueOf(downloadRateLimit));
+        props.put("verify.checksums", String.valueOf(verifyChecksums));
         
         try (OutputStream out = new FileOutputStream(target)) {
             props.store(out, new Date().toString());
@@ -205,9 +250,16 @@ public class Configuration {
             c.checkArtifacts = "true".equals(props.getProperty("check.artifacts"));
 
             c.supportBugReporting = "true".equals(props.getProperty("support.bugreporting"));
+            c.verifyChecksums = "true".equals(props.getProperty("verify.checksums"));
 
             c.githubUsername = props.getProperty("github.user");
             c.githubToken = props.getProperty("github.token");
+
+            try {
+                c.downloadRateLimit = Long.parseLong(props.getProperty("download.ratelimit", "0"));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid download.ratelimit", e);
+            }
             
             // test decrypt
             c.getGithubToken();
@@ -0,0 +1,167 @@
+/*
+ */
+package settlers.installer.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.Util;
+
+/**
+ * The list of files in a game installation with their size and CRC-32,
+ * stored next to metadata.json. It allows later installations to find
+ * identical files without reading them, and the installation to be verified
+ * and repaired from the archive it was extracted from.
+ *
+ * @author hiran
+ */
+public class InstallManifest {
+    private static final Logger log = LogManager.getLogger(InstallManifest.class);
+
+    /** Name of the manifest file inside the installation folder. */
+    public static final String FILENAME = "manifest.json";
+
+    private long archiveId;
+    private String innerArchive;
+    private List<InstalledFile> files = new ArrayList<>();
+
+    /**
+     * Returns the id of the archive in the artifact cache.
+     *
+     * @return the GitHub id of the asset or artifact, 0 if unknown
+     */
+    public long getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * Sets the id of the archive in the artifact cache.
+     *
+     * @param archiveId the GitHub id of the asset or artifact
+     */
+    public void setArchiveId(long archiveId) {
+        this.archiveId = archiveId;
+    }
+
+    /**
+     * Returns the name of the archive inside the cached one that was
+     * actually extracted, as for workflow artifacts.
+     *
+     * @return the entry name, or null if the cached archive was extracted
+     */
+    public String getInnerArchive() {
+        return innerArchive;
+    }
+
+    /**
+     * Sets the name of the archive inside the cached one.
+     *
+     * @param innerArchive the entry name, or null
+     */
+    public void setInnerArchive(String innerArchive) {
+        this.innerArchive = innerArchive;
+    }
+
+    /**
+     * Returns the files.
+     *
+     * @return the files
+     */
+    public List<InstalledFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Sets the files.
+     *
+     * @param files the files
+     */
+    public void setFiles(List<InstalledFile> files) {
+        this.files = files;
+    }
+
+    /**
+     * Creates the manifest for the files contained in an archive.
+     *
+     * @param archive the archive that was extracted
+     * @return the manifest
+     * @throws IOException the archive could not be read
+     */
+    public static InstallManifest fromArchive(File archive) throws IOException {
+        return fromArchive(archive, null);
+    }
+
+    /**
+     * Creates the manifest for the files contained in an archive, with the
+     * digests computed while it was extracted.
+     *
+     * @param archive the archive that was extracted
+     * @param digests the SHA-256 in hex by entry name, or null
+     * @return the manifest
+     * @throws IOException the archive could not be read
+     */
+    public static InstallManifest fromArchive(File archive, Map<String, String> digests) throws IOException {
+        InstallManifest result = new InstallManifest();
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    InstalledFile f = new InstalledFile();
+                    f.setName(entry.getName());
+                    f.setSize(entry.getSize());
+                    f.setCrc(entry.getCrc());
+                    if (digests != null) {
+                        f.setSha256(digests.get(entry.getName()));
+                    }
+                    result.files.add(f);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the manifest in the given installation folder.
+     *
+     * @param installFolder the folder of the installation
+     */
+    public void save(File installFolder) {
+        File target = new File(installFolder, FILENAME);
+        try (OutputStream out = new FileOutputStream(target)) {
+            Util.getGenson().serialize(this, out);
+        } catch (IOException e) {
+            log.warn("Could not save install manifest {}", target, e);
+        }
+    }
+
+    /**
+     * Loads the manifest from the given installation folder.
+     *
+     * @param installFolder the folder of the installation
+     * @return the manifest, or null if there is none
+     */
+    public static InstallManifest load(File installFolder) {
+        File source = new File(installFolder, FILENAME);
+        if (!source.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(source)) {
+            return Util.getGenson().deserialize(in, InstallManifest.class);
+        } catch (Exception e) {
+            log.debug("Could not read install manifest {}", source, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ */
+package settlers.installer.model;
+
+/**
+ * A single file extracted into a game installation, as recorded in the
+ * {@link InstallManifest}.
+ *
+ * @author hiran
+ */
+public class InstalledFile {
+    private String name;
+    private long size;
+    private long crc;
+    private String sha256;
+
+    /**
+     * Returns the path relative to the installation folder.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the path relative to the installation folder.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the file size.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the file size.
+     *
+     * @param size the size in bytes
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the CRC-32 of the content.
+     *
+     * @return the crc
+     */
+    public long getCrc() {
+        return crc;
+    }
+
+    /**
+     * Sets the CRC-32 of the content.
+     *
+     * @param crc the crc
+     */
+    public void setCrc(long crc) {
+        this.crc = crc;
+    }
+
+    /**
+     * Returns the SHA-256 of the content, naming the blob the file is linked to.
+     *
+     * @return the digest in hex, or null if not known
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Sets the SHA-256 of the content.
+     *
+     * @param sha256 the digest in hex
+     */
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+}
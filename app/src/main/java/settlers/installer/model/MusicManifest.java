@@ -0,0 +1,92 @@
+/*
+ */
+package settlers.installer.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settlers.installer.Util;
+
+/**
+ * The list of music tracks and their state, stored next to the tracks.
+ * Reading this is enough to know whether the music is complete, so the
+ * launch path does not need to look at the files.
+ *
+ * @author hiran
+ */
+public class MusicManifest {
+    private static final Logger log = LogManager.getLogger(MusicManifest.class);
+
+    private List<MusicTrack> tracks = new ArrayList<>();
+
+    /**
+     * Returns the tracks.
+     *
+     * @return the tracks
+     */
+    public List<MusicTrack> getTracks() {
+        return tracks;
+    }
+
+    /**
+     * Sets the tracks.
+     *
+     * @param tracks the tracks
+     */
+    public void setTracks(List<MusicTrack> tracks) {
+        this.tracks = tracks;
+    }
+
+    /**
+     * Returns the entry for the given url.
+     *
+     * @param url the download url
+     * @return the entry, or null if the url is unknown
+     */
+    public MusicTrack getTrack(String url) {
+        for (MusicTrack track : tracks) {
+            if (url.equals(track.getUrl())) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the manifest to the given file.
+     *
+     * @param target the file to write
+     */
+    public void save(File target) {
+        try (OutputStream out = new FileOutputStream(target)) {
+            Util.getGenson().serialize(this, out);
+        } catch (IOException e) {
+            log.warn("Could not save music manifest {}", target, e);
+        }
+    }
+
+    /**
+     * Loads the manifest from the given file.
+     *
+     * @param source the file to read
+     * @return the manifest, empty if the file could not be read
+     */
+    public static MusicManifest load(File source) {
+        try (InputStream in = new FileInputStream(source)) {
+            MusicManifest result = Util.getGenson().deserialize(in, MusicManifest.class);
+            if (result != null) {
+                return result;
+            }
+        } catch (Exception e) {
+            log.debug("Could not read music manifest {}", source, e);
+        }
+        return new MusicManifest();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ */
+package settlers.installer.model;
+
+/**
+ * One entry of the music manifest: where a track comes from, where it is
+ * stored locally and how far it got.
+ *
+ * @author hiran
+ */
+public class MusicTrack {
+
+    /**
+     * The processing state of a track.
+     */
+    public enum Status {
+        /** Not yet downloaded. */
+        missing,
+        /** Downloaded but not yet converted to ogg. Size and digest describe the download. */
+        downloaded,
+        /** Converted and ready to be played. */
+        transcoded,
+        /** The last attempt failed. */
+        failed
+    }
+
+    private String url;
+    private String file;
+    private long size;
+    private String digest;
+    private Status status = Status.missing;
+
+    /**
+     * Returns the url the track is downloaded from.
+     *
+     * @return the url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Sets the url the track is downloaded from.
+     *
+     * @param url the url
+     */
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns the local filename, relative to the music folder.
+     *
+     * @return the filename
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the local filename, relative to the music folder.
+     *
+     * @param file the filename
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the size of the local file.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the size of the local file.
+     *
+     * @param size the size in bytes
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the local file.
+     *
+     * @return the digest as hex string
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Sets the SHA-256 digest of the local file.
+     *
+     * @param digest the digest as hex string
+     */
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Returns the processing state.
+     *
+     * @return the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets the processing state.
+     *
+     * @param status the status
+     */
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+}
@@ -46,6 +46,9 @@ public class ConfigurationPanel extends javax.swing.JPanel {
         cbArtifacts = new javax.swing.JCheckBox();
         jPanel2 = new javax.swing.JPanel();
         cbSupportBugReporting = new javax.swing.JCheckBox();
+        cbVerifyChecksums = new javax.swing.JCheckBox();
+        jLabel3 = new javax.swing.JLabel();
+        spDownloadRate = new javax.swing.JSpinner();
         jPanel3 = new javax.swing.JPanel();
         jLabel1 = new javax.swing.JLabel();
         jLabel2 = new javax.swing.JLabel();
@@ -88,13 +91,25 @@ public class ConfigurationPanel extends javax.swing.JPanel {
 
         cbSupportBugReporting.setText("Support bug reporting");
 
+        cbVerifyChecksums.setText("Check file checksums before playing");
+
+        jLabel3.setText("Download limit in KiB/s (0 for none)");
+
+        spDownloadRate.setModel(new javax.swing.SpinnerNumberModel(Long.valueOf(0L), Long.valueOf(0L), null, Long.valueOf(100L)));
+
         javax.swing.GroupLayout jPanel2Layout = new javax.swing.GroupLayout(jPanel2);
         jPanel2.setLayout(jPanel2Layout);
         jPanel2Layout.setHorizontalGroup(
             jPanel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
             .addGroup(jPanel2Layout.createSequentialGroup()
                 .addContainerGap()
-                .addComponent(cbSupportBugReporting)
+                .addGroup(jPanel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(cbSupportBugReporting)
+                    .addComponent(cbVerifyChecksums)
+                    .addGroup(jPanel2Layout.createSequentialGroup()
+                        .addComponent(jLabel3)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(spDownloadRate, javax.swing.GroupLayout.PREFERRED_SIZE, 100, javax.swing.GroupLayout.PREFERRED_SIZE)))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         jPanel2Layout.setVerticalGroup(
@@ -102,6 +117,12 @@ public class ConfigurationPanel extends javax.swing.JPanel {
             .addGroup(jPanel2Layout.createSequentialGroup()
                 .addContainerGap()
                 .addComponent(cbSupportBugReporting)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(cbVerifyChecksums)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel3)
+                    .addComponent(spDownloadRate, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -192,6 +213,8 @@ public class ConfigurationPanel extends javax.swing.JPanel {
         cbArtifacts.setSelected(data.isCheckArtifacts());
 
         cbSupportBugReporting.setSelected(data.isSupportBugReporting());
+        cbVerifyChecksums.setSelected(data.isVerifyChecksums());
+        spDownloadRate.setValue(data.getDownloadRateLimit() / 1024);
         
         tfUsername.setText(data.getGithubUsername());
         pfToken.setText(data.getGithubToken());
@@ -210,6 +233,8 @@ public class ConfigurationPanel extends javax.swing.JPanel {
         data.setCheckArtifacts(cbArtifacts.isSelected());
 
         data.setSupportBugReporting(cbSupportBugReporting.isSelected());
+        data.setVerifyChecksums(cbVerifyChecksums.isSelected());
+        data.setDownloadRateLimit(((Number) spDownloadRate.getValue()).longValue() * 1024);
         
         data.setGithubUsername(tfUsername.getText());
         data.setGithubToken(new String(pfToken.getPassword()));
@@ -221,12 +246,15 @@ public class ConfigurationPanel extends javax.swing.JPanel {
     private javax.swing.JCheckBox cbPrereleases;
     private javax.swing.JCheckBox cbReleases;
     private javax.swing.JCheckBox cbSupportBugReporting;
+    private javax.swing.JCheckBox cbVerifyChecksums;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel2;
+    private javax.swing.JLabel jLabel3;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JPanel jPanel2;
     private javax.swing.JPanel jPanel3;
     private javax.swing.JPasswordField pfToken;
+    private javax.swing.JSpinner spDownloadRate;
     private javax.swing.JTextField tfUsername;
     // End of variables declaration//GEN-END:variables
 }
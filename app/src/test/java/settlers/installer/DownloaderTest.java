@@ -0,0 +1,209 @@
+/*
+ */
+package settlers.installer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests resuming and segmented downloads against a local HTTP server that
+ * understands Range and If-Range, and can drop the connection mid-body.
+ *
+ * @author hiran
+ */
+class DownloaderTest {
+    private static final String ETAG = "\"v1\"";
+    private static final int SIZE = 1024 * 1024;
+
+    @TempDir
+    Path temp;
+
+    private final byte[] data = new byte[SIZE];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final List<String> ifRanges = new CopyOnWriteArrayList<>();
+    /** The next full response is cut off after this many bytes, -1 for none. */
+    private volatile int dropAfter = -1;
+    /** Number of range responses still to cut short. */
+    private final AtomicInteger truncate = new AtomicInteger();
+    /** Only responses for ranges starting here are cut short, -1 for all. */
+    private volatile long truncateFrom = -1;
+    private volatile String etag = ETAG;
+
+    private HttpServer server;
+    private URL url;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(42).nextBytes(data);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/file.zip", this::serve);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/file.zip");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void resumesWithRangeAndIfRange() throws IOException {
+        Downloader downloader = new Downloader(temp.toFile());
+        writePart(downloader, 300_000, ETAG);
+
+        File target = temp.resolve("target.zip").toFile();
+        downloader.download(url, target);
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals("bytes=300000-", ranges.get(0));
+        assertFalse(downloader.getPartFile(url).exists());
+    }
+
+    @Test
+    void resumesAfterTheConnectionDrops() throws IOException {
+        dropAfter = 300_000;
+        Downloader downloader = new Downloader(temp.toFile());
+        downloader.setMaxAttempts(1);
+
+        File target = temp.resolve("target.zip").toFile();
+        assertThrows(IOException.class, () -> downloader.download(url, target));
+        long received = downloader.getPartFile(url).length();
+        assertTrue(received > 0 && received <= 300_000, String.valueOf(received));
+
+        downloader.download(url, target);
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("bytes=" + received + "-"), ranges);
+        assertEquals(List.of(ETAG), ifRanges);
+    }
+
+    @Test
+    void restartsWhenTheFileChanged() throws IOException {
+        Downloader downloader = new Downloader(temp.toFile());
+        writePart(downloader, 300_000, "\"v0\"");
+
+        File target = temp.resolve("target.zip").toFile();
+        downloader.download(url, target);
+
+        // the server ignored the range because If-Range did not match
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void retriesASegmentThatStopsEarly() throws IOException {
+        truncate.set(1);
+        truncateFrom = SIZE / 2;
+        Downloader downloader = new Downloader(temp.toFile());
+
+        File target = temp.resolve("target.zip").toFile();
+        downloader.downloadSegmented(url, target, SIZE, 4);
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        // the retry continues after the bytes the short response delivered
+        assertTrue(ranges.contains("bytes=" + (SIZE / 2 + SIZE / 8) + "-" + (SIZE * 3 / 4 - 1)), ranges.toString());
+    }
+
+    @Test
+    void failsAndResumesASegmentThatKeepsStoppingEarly() throws IOException {
+        truncate.set(Integer.MAX_VALUE);
+        truncateFrom = 0;
+        Downloader downloader = new Downloader(temp.toFile());
+        downloader.setMaxAttempts(1);
+
+        File target = temp.resolve("target.zip").toFile();
+        assertThrows(IOException.class, () -> downloader.downloadSegmented(url, target, SIZE, 4));
+        assertFalse(target.exists());
+        assertTrue(downloader.getSegmentsInfoFile(url).isFile());
+
+        // a new installer run picks up the recorded positions
+        truncate.set(0);
+        ranges.clear();
+        new Downloader(temp.toFile()).downloadSegmented(url, target, SIZE, 4);
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertTrue(ranges.contains("bytes=" + (SIZE / 8) + "-" + (SIZE / 4 - 1)), ranges.toString());
+        assertEquals(1, ranges.size(), ranges.toString());
+    }
+
+    private void writePart(Downloader downloader, int length, String partEtag) throws IOException {
+        try (OutputStream out = new FileOutputStream(downloader.getPartFile(url))) {
+            out.write(data, 0, length);
+        }
+        Properties state = new Properties();
+        state.setProperty("url", url.toString());
+        state.setProperty("etag", partEtag);
+        state.setProperty("offset", String.valueOf(length));
+        try (OutputStream out = new FileOutputStream(downloader.getPartInfoFile(url))) {
+            state.store(out, null);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+            exchange.sendResponseHeaders(200, SIZE);
+            int drop = dropAfter;
+            if (drop >= 0) {
+                dropAfter = -1;
+                OutputStream out = exchange.getResponseBody();
+                out.write(data, 0, drop);
+                out.flush();
+                // closing before the announced length is written closes the connection
+                exchange.close();
+                return;
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+            return;
+        }
+
+        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+        int from = Integer.parseInt(bounds[0]);
+        int to = bounds[1].isEmpty() ? SIZE - 1 : Integer.parseInt(bounds[1]);
+        if (!"bytes=0-0".equals(range)) {
+            ranges.add(range);
+            if (ifRange != null) {
+                ifRanges.add(ifRange);
+            }
+        }
+        int length = to - from + 1;
+        if ((truncateFrom < 0 || truncateFrom == from) && length > 1 && truncate.getAndDecrement() > 0) {
+            // a well formed response that simply carries less than was asked for
+            length = length / 2;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + SIZE);
+        exchange.sendResponseHeaders(206, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data, from, length);
+        }
+    }
+}